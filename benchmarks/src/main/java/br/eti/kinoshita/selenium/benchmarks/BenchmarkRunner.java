@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Runs the benchmarks, like the JMH main class, but writing the results 
+ * as JSON to target/jmh-result.json unless -rf or -rff are given. That 
+ * way results of different versions can be compared with any JMH 
+ * results viewer.</p>
+ * 
+ * <pre>java -jar target/benchmarks.jar [JMH options] [benchmark regexps]</pre>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class BenchmarkRunner
+{
+
+	/**
+	 * Default results file.
+	 */
+	public static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+	
+	public static void main( String[] args ) 
+	throws Exception
+	{
+		final CommandLineOptions commandLine = new CommandLineOptions(args);
+		if ( commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers() )
+		{
+			// delegates the informative options to the JMH main class
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if ( ! commandLine.getResultFormat().hasValue() )
+		{
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if ( ! commandLine.getResult().hasValue() )
+		{
+			new File(DEFAULT_RESULT_FILE).getParentFile().mkdirs();
+			options.result(DEFAULT_RESULT_FILE);
+		}
+		new Runner(options.build()).run();
+	}
+	
+}
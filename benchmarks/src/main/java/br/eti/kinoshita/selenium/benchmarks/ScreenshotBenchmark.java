@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.benchmarks;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.testng.ITestContext;
+
+import br.eti.kinoshita.selenium.SeleniumWebTest;
+import br.eti.kinoshita.selenium.screenshot.AttachmentRegistry;
+import br.eti.kinoshita.selenium.screenshot.AttachmentRegistry.Invocation;
+
+/**
+ * <p>Benchmarks {@link SeleniumWebTest#addScreenShot(ITestContext, Method, String)}, 
+ * from the capture to the YAMLish attachment, on generated PNGs of 
+ * realistic sizes: a small viewport, a full HD viewport and a long full 
+ * page capture. The driver is a stub returning the PNG, so only the 
+ * work done by selenium2-base is measured.</p>
+ * 
+ * <p>In reference mode the File-Content is read too, as TestTAPReporter 
+ * would when writing the TAP Stream.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScreenshotBenchmark
+{
+
+	@Param({"1024x768", "1920x1080", "1920x6000"})
+	public String size;
+	
+	@Param({"inline", "reference"})
+	public String mode;
+	
+	private File directory;
+	private ScreenshotTest test;
+	private ITestContext context;
+	private Method method;
+	
+	@Setup(Level.Trial)
+	public void setUp() 
+	throws IOException, NoSuchMethodException
+	{
+		final String[] dimensions = size.split("x");
+		final byte[] png = newPage(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+		
+		directory = new File(FileUtils.getTempDirectory(), "selenium2-base-benchmarks-" + System.nanoTime());
+		final BaseConfiguration configuration = new BaseConfiguration();
+		configuration.setProperty("selenium.screenshot.mode", mode);
+		configuration.setProperty("selenium.screenshot.dir", directory.getAbsolutePath());
+		test = new ScreenshotTest(newDriver(png), configuration);
+		context = newContext();
+		method = ScreenshotBenchmark.class.getMethod("addScreenShot", Blackhole.class);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() 
+	throws IOException
+	{
+		FileUtils.deleteDirectory(directory);
+	}
+	
+	@Benchmark
+	public void addScreenShot( Blackhole blackhole )
+	{
+		test.addScreenShot(context, method, "Benchmark screen shot");
+		final Map<String, Object> attachments = AttachmentRegistry.getInstance().remove(new Invocation(method, null));
+		for ( Object value : attachments.values() )
+		{
+			final Map<?, ?> attachment = (Map<?, ?>) value;
+			blackhole.consume(attachment.get("File-Content"));
+			FileUtils.deleteQuietly(new File((String) attachment.get("File-Location")));
+		}
+	}
+	
+	/**
+	 * Draws something that compresses like a web page: a header, text 
+	 * lines, boxes and a photo-like area with noise.
+	 */
+	static byte[] newPage( int width, int height ) 
+	throws IOException
+	{
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = image.createGraphics();
+		final Random random = new Random(42L);
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, width, height);
+		graphics.setColor(new Color(0x33, 0x66, 0x99));
+		graphics.fillRect(0, 0, width, 80);
+		graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 14));
+		for ( int y = 120 ; y < height ; y += 22 )
+		{
+			if ( y % 440 < 22 )
+			{
+				graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+				graphics.fillRect(40, y, width / 3, 180);
+			}
+			graphics.setColor(Color.DARK_GRAY);
+			graphics.drawString("Lorem ipsum dolor sit amet, consectetur adipiscing elit " + y, width / 3 + 80, y);
+		}
+		for ( int y = 100 ; y < Math.min(height, 400) ; ++y )
+		{
+			for ( int x = width - 320 ; x < width - 20 ; ++x )
+			{
+				image.setRGB(x, y, (x * 3 + y) << 8 ^ random.nextInt(0x20));
+			}
+		}
+		graphics.dispose();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * A driver that only takes screen shots.
+	 */
+	static WebDriver newDriver( final byte[] png )
+	{
+		return (WebDriver) Proxy.newProxyInstance(ScreenshotBenchmark.class.getClassLoader(), 
+				new Class<?>[] { WebDriver.class, TakesScreenshot.class }, 
+				new InvocationHandler()
+				{
+					public Object invoke( Object proxy, Method method, Object[] args )
+					{
+						if ( "getScreenshotAs".equals(method.getName()) )
+						{
+							return ((OutputType<?>) args[0]).convertFromPngBytes(png);
+						}
+						if ( "getTitle".equals(method.getName()) || "toString".equals(method.getName()) )
+						{
+							return "Benchmark driver";
+						}
+						if ( "hashCode".equals(method.getName()) )
+						{
+							return System.identityHashCode(proxy);
+						}
+						if ( "equals".equals(method.getName()) )
+						{
+							return proxy == args[0];
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+	
+	/**
+	 * A test context that only keeps attributes.
+	 */
+	static ITestContext newContext()
+	{
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		return (ITestContext) Proxy.newProxyInstance(ScreenshotBenchmark.class.getClassLoader(), 
+				new Class<?>[] { ITestContext.class }, 
+				new InvocationHandler()
+				{
+					public Object invoke( Object proxy, Method method, Object[] args )
+					{
+						if ( "getAttribute".equals(method.getName()) )
+						{
+							return attributes.get(args[0]);
+						}
+						if ( "setAttribute".equals(method.getName()) )
+						{
+							attributes.put((String) args[0], args[1]);
+							return null;
+						}
+						if ( "removeAttribute".equals(method.getName()) )
+						{
+							return attributes.remove(args[0]);
+						}
+						if ( "getAttributeNames".equals(method.getName()) )
+						{
+							return attributes.keySet();
+						}
+						if ( "getName".equals(method.getName()) || "toString".equals(method.getName()) )
+						{
+							return "Benchmark context";
+						}
+						if ( "hashCode".equals(method.getName()) )
+						{
+							return System.identityHashCode(proxy);
+						}
+						if ( "equals".equals(method.getName()) )
+						{
+							return proxy == args[0];
+						}
+						return null;
+					}
+				});
+	}
+	
+	/**
+	 * Web test, only to take screen shots with the stub driver.
+	 */
+	static class ScreenshotTest 
+	extends SeleniumWebTest
+	{
+		ScreenshotTest( WebDriver driver, BaseConfiguration configuration )
+		{
+			this.driver = driver;
+			this.configuration = configuration;
+		}
+	}
+	
+}
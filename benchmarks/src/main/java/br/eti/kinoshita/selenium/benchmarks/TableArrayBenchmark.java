@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jxl.Workbook;
+import jxl.write.Label;
+import jxl.write.WritableSheet;
+import jxl.write.WritableWorkbook;
+import jxl.write.WriteException;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.eti.kinoshita.selenium.DataDrivenSeleniumWebTest;
+import br.eti.kinoshita.selenium.data.TableCache;
+
+/**
+ * <p>Benchmarks {@link DataDrivenSeleniumWebTest#getTableArray(String, String)} 
+ * on generated XLS files of increasing size. Cold reads clear the 
+ * {@link TableCache} before each call, so the file is parsed every time. 
+ * Warm reads are served by the cache. The table markers index is kept 
+ * between cold reads, as it is between the tests of a suite.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableArrayBenchmark
+{
+
+	private static final String SHEET_NAME = "Data";
+	private static final String TABLE_NAME = "Table";
+	private static final int COLUMNS = 10;
+	
+	@Param({"100", "1000", "10000"})
+	public int rows;
+	
+	private File directory;
+	private DataTest test;
+	
+	@Setup(Level.Trial)
+	public void setUp() 
+	throws IOException, WriteException
+	{
+		directory = new File(FileUtils.getTempDirectory(), "selenium2-base-benchmarks-" + System.nanoTime());
+		directory.mkdirs();
+		final File xlsFile = new File(directory, "data-" + rows + ".xls");
+		writeTable(xlsFile, rows, COLUMNS);
+		
+		final BaseConfiguration configuration = new BaseConfiguration();
+		configuration.setProperty("selenium.xls", xlsFile.getAbsolutePath());
+		// no compiled data cache, so that cold reads parse the XLS file
+		configuration.setProperty("selenium.data.cache.dir", new File(directory, "cache").getAbsolutePath());
+		test = new DataTest(configuration);
+		TableCache.getInstance().clear();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() 
+	throws IOException
+	{
+		TableCache.getInstance().clear();
+		FileUtils.deleteDirectory(directory);
+	}
+	
+	@Benchmark
+	public String[][] cold()
+	{
+		TableCache.getInstance().clear();
+		return test.read();
+	}
+	
+	@Benchmark
+	public String[][] warm()
+	{
+		return test.read();
+	}
+	
+	/**
+	 * Writes a table with start and end markers, like the ones used in 
+	 * data-driven tests.
+	 */
+	static void writeTable( File file, int rows, int columns ) 
+	throws IOException, WriteException
+	{
+		final WritableWorkbook workbook = Workbook.createWorkbook(file);
+		try
+		{
+			final WritableSheet sheet = workbook.createSheet(SHEET_NAME, 0);
+			sheet.addCell(new Label(0, 0, TABLE_NAME));
+			for ( int row = 1 ; row <= rows ; ++row )
+			{
+				for ( int column = 1 ; column <= columns ; ++column )
+				{
+					final String value = column % 3 == 0 ? Integer.toString(row * column) : "value " + row + "-" + column;
+					sheet.addCell(new Label(column, row, value));
+				}
+			}
+			sheet.addCell(new Label(columns + 1, rows + 1, TABLE_NAME));
+			workbook.write();
+		}
+		finally
+		{
+			workbook.close();
+		}
+	}
+	
+	/**
+	 * Data-driven test, only to call getTableArray.
+	 */
+	static class DataTest 
+	extends DataDrivenSeleniumWebTest
+	{
+		DataTest( BaseConfiguration configuration )
+		{
+			this.configuration = configuration;
+		}
+		
+		@Override
+		public String getSheetName()
+		{
+			return SHEET_NAME;
+		}
+		
+		String[][] read()
+		{
+			return getTableArray(getSheetName(), getTableName());
+		}
+	}
+	
+}
@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+import br.eti.kinoshita.selenium.util.Utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Benchmarks the {@link Utils} wait and click helpers against an 
+ * HtmlUnitDriver (with JavaScript enabled) browsing pages served by an 
+ * embedded HTTP server on the loopback interface. Nothing leaves the 
+ * machine, so it runs offline.</p>
+ * 
+ * <p>The waits are measured on a freshly loaded page, where the element 
+ * is either already present or added after {@value #DELAY} ms, so the 
+ * results include the page load and the delay. Compare the polling and 
+ * the in browser waits of the same page.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilsBenchmark
+{
+
+	private static final Long TIMEOUT = 10000L;
+	
+	static final int DELAY = 50;
+	
+	private static final String PAGE = 
+		"<html><head><title>Utils benchmark</title><script type=\"text/javascript\">\n" + 
+		"function later(delay) {\n" + 
+		"  var add = function() {\n" + 
+		"    var div = document.createElement('div');\n" + 
+		"    div.id = 'late';\n" + 
+		"    div.appendChild(document.createTextNode('Loaded'));\n" + 
+		"    document.body.appendChild(div);\n" + 
+		"  };\n" + 
+		"  if (delay > 0) { setTimeout(add, delay); } else { add(); }\n" + 
+		"}\n" + 
+		"</script></head>\n" + 
+		"<body onload=\"later(parseInt(location.search.substring(7) || '0', 10))\">\n" + 
+		"<button id=\"counter\" onclick=\"this.value = parseInt(this.value, 10) + 1\" value=\"0\">Count</button>\n" + 
+		"<button id=\"toggle\" onclick=\"this.className = this.className == 'done' ? '' : 'done'\">Toggle</button>\n" + 
+		"<button id=\"hide\" onclick=\"this.style.display = 'none'\">Hide</button>\n" + 
+		"<input type=\"radio\" name=\"choice\" id=\"first\" value=\"first\" />\n" + 
+		"<input type=\"radio\" name=\"choice\" id=\"second\" value=\"second\" />\n" + 
+		"</body></html>";
+	
+	private HttpServer server;
+	private HtmlUnitDriver driver;
+	private String presentUrl;
+	private String lateUrl;
+	private WebElement counter;
+	private WebElement toggle;
+	private WebElement hide;
+	private WebElement[] radios;
+	private int radio;
+	
+	@Setup(Level.Trial)
+	public void setUp() 
+	throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			public void handle( HttpExchange exchange ) 
+			throws IOException
+			{
+				final byte[] body = PAGE.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				final OutputStream out = exchange.getResponseBody();
+				try
+				{
+					out.write(body);
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+		});
+		server.start();
+		final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/utils.html?delay=";
+		presentUrl = url + 0;
+		lateUrl = url + DELAY;
+		driver = new HtmlUnitDriver(true);
+		driver.get(presentUrl);
+		counter = driver.findElement(By.id("counter"));
+		toggle = driver.findElement(By.id("toggle"));
+		hide = driver.findElement(By.id("hide"));
+		radios = new WebElement[] { driver.findElement(By.id("first")), driver.findElement(By.id("second")) };
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		driver.quit();
+		server.stop(0);
+	}
+	
+	/**
+	 * State of the page before each click that changes it.
+	 */
+	@Setup(Level.Invocation)
+	public void resetPage()
+	{
+		((JavascriptExecutor) driver).executeScript(
+				"document.getElementById('toggle').className = ''; " + 
+				"document.getElementById('hide').style.display = '';");
+	}
+	
+	@Benchmark
+	public WebElement waitForAssyncContent()
+	{
+		driver.get(presentUrl);
+		return Utils.waitForAssyncContent(driver, By.id("late"), TIMEOUT);
+	}
+	
+	@Benchmark
+	public WebElement waitForAssyncContentLate()
+	{
+		driver.get(lateUrl);
+		return Utils.waitForAssyncContent(driver, By.id("late"), TIMEOUT);
+	}
+	
+	@Benchmark
+	public WebElement waitForAssyncContentInBrowser()
+	{
+		driver.get(presentUrl);
+		return Utils.waitForAssyncContentInBrowser(driver, By.id("late"), TIMEOUT);
+	}
+	
+	@Benchmark
+	public WebElement waitForAssyncContentInBrowserLate()
+	{
+		driver.get(lateUrl);
+		return Utils.waitForAssyncContentInBrowser(driver, By.id("late"), TIMEOUT);
+	}
+	
+	@Benchmark
+	public void executeJavascriptClick()
+	{
+		Utils.executeJavascriptClick(driver, "counter");
+	}
+	
+	@Benchmark
+	public void click()
+	{
+		counter.click();
+	}
+	
+	@Benchmark
+	public void selectRadioButton()
+	{
+		radio = 1 - radio;
+		Utils.selectRadioButton(radios[radio]);
+	}
+	
+	@Benchmark
+	public void clickAndWaitForElementAttributeChange()
+	{
+		Utils.clickAndWaitForElementAttributeChange(toggle, "class", "done");
+	}
+	
+	@Benchmark
+	public void clickAndWaitForElementToDesappear()
+	{
+		Utils.clickAndWaitForElementToDesappear(hide);
+	}
+	
+}
@@ -24,12 +24,18 @@
 package br.eti.kinoshita.selenium;
 
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.support.PageFactory;
-import org.openqa.selenium.support.pagefactory.AjaxElementLocatorFactory;
-import org.openqa.selenium.support.pagefactory.ElementLocatorFactory;
+
+import br.eti.kinoshita.selenium.page.CacheElement;
+import br.eti.kinoshita.selenium.page.PageMetadata;
 
 /**
- * Base page for Page Objects pattern.
+ * <p>Base page for Page Objects pattern.</p>
+ * 
+ * <p>Fields are found each time they are used, waiting up to the timeout 
+ * for them, like with an AjaxElementLocatorFactory. Mark a field, or the 
+ * page class, with {@link CacheElement} to find the elements once per page 
+ * instance instead. The fields and their locators are reflected once per 
+ * page class, see {@link PageMetadata}.</p>
  * 
  * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
  * @since 0.1
@@ -45,9 +51,8 @@ public class BasePage
 		this.driver = driver;
 		this.timeOutInSeconds = timeOutInSeconds;
 		
-		ElementLocatorFactory finder = 
-			new AjaxElementLocatorFactory(driver, timeOutInSeconds);
-		PageFactory.initElements( finder, this );
+		// Fields and locators are reflected once per page class
+		PageMetadata.forClass(getClass()).initElements(this, driver, timeOutInSeconds);
 	}
 	
 	public WebDriver getDriver()
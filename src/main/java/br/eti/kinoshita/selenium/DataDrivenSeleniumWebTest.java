@@ -24,18 +24,22 @@
 package br.eti.kinoshita.selenium;
 
 import java.io.File;
-import java.io.IOException;
+import java.net.URL;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
-import jxl.Cell;
-import jxl.Sheet;
-import jxl.Workbook;
-import jxl.read.biff.BiffException;
-
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.DataProvider;
 
+import br.eti.kinoshita.selenium.data.CompiledTableStore;
+import br.eti.kinoshita.selenium.data.DataCacheCompiler;
+import br.eti.kinoshita.selenium.data.DataTable;
+import br.eti.kinoshita.selenium.data.TableCache;
+import br.eti.kinoshita.selenium.data.TableDataSource;
+import br.eti.kinoshita.selenium.data.TableDataSources;
 import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
 
 /**
@@ -51,8 +55,9 @@ import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
  * make sure to have her/his name here as author, or I will pay some 
  * Baden-Baden beers.</p>
  * 
- * <p>// TBD: think in a way to have Data Driven Tests from properties files, 
- * XML, JSON, YAML, or any other test data source. Not only from Excel.</p>
+ * <p>Besides Excel .xls files, the data may come from .xlsx, CSV or TSV 
+ * files, or from any other format with a {@link TableDataSource} 
+ * registered in {@link TableDataSources}.</p>
  * 
  * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
  * @author Cesar Fernandes de Almeida
@@ -80,6 +85,24 @@ extends SeleniumWebTest
 	 */
 	public abstract String getSheetName();
 	
+	/**
+	 * @return Whether the first row of the table contains the column names. 
+	 * Used by the typed data providers. By default <code>true</code>.
+	 */
+	public boolean hasHeaderRow()
+	{
+		return true;
+	}
+	
+	/**
+	 * @return Bean class that the rows are bound to by the "DataExcelBean" 
+	 * data provider. Override this method if you use it.
+	 */
+	public Class<?> getDataBeanClass()
+	{
+		return null;
+	}
+	
 	/**
 	 * This is the method that enables data-driven tests. It returns an multi-
 	 * dimensional array of Objects to be used in tests. 
@@ -92,13 +115,92 @@ extends SeleniumWebTest
 	throws SeleniumWebTestException 
 	{
 		Object[][] xlsDataArray = getTableArray(getSheetName(), getTableName());
-	    LOGGER.debug("Data-driven test object[][] array: " + Arrays.toString(xlsDataArray));
+		LOGGER.debug("Data-driven test object[][] array with " + xlsDataArray.length + " rows");
+		if ( LOGGER.isTraceEnabled() )
+		{
+			LOGGER.trace("Data-driven test object[][] array: " + Arrays.deepToString(xlsDataArray));
+		}
 		return xlsDataArray;
 	}
 	
+	/**
+	 * Typed alternative to {@link #getDataFromXLS()}. Integer, decimal, 
+	 * boolean and date (yyyy-MM-dd) columns are passed to your tests as 
+	 * Long, Double, Boolean and Date. The conversion is done once per table, 
+	 * see {@link DataTable}. If {@link #hasHeaderRow()}, the first row is 
+	 * not passed to the tests.
+	 * 
+	 * @return typed table rows.
+	 * @throws SeleniumWebTestException
+	 */
+	@DataProvider(name = "DataExcelTyped")
+	public Object[][] getTypedDataFromXLS()
+	throws SeleniumWebTestException
+	{
+		return getDataTable(getSheetName(), getTableName()).toRows();
+	}
+	
+	/**
+	 * Binds each row to an instance of {@link #getDataBeanClass()}, which 
+	 * is passed as the single parameter of your tests. The first row must 
+	 * be a header with the names of the bean fields.
+	 * 
+	 * @return one bean per row.
+	 * @throws SeleniumWebTestException
+	 */
+	@DataProvider(name = "DataExcelBean")
+	public Object[][] getDataBeansFromXLS()
+	throws SeleniumWebTestException
+	{
+		final Class<?> beanClass = getDataBeanClass();
+		if ( beanClass == null )
+		{
+			throw new SeleniumWebTestException("Override getDataBeanClass() to use the DataExcelBean data provider.");
+		}
+		final List<?> beans = getDataTable(getSheetName(), getTableName()).bind(beanClass);
+		final Object[][] rows = new Object[beans.size()][];
+		for ( int i = 0 ; i < rows.length ; ++i )
+		{
+			rows[i] = new Object[] { beans.get(i) };
+		}
+		return rows;
+	}
+	
+	/**
+	 * Streaming alternative to {@link #getDataFromXLS()}. The rows are read 
+	 * from the sheet as TestNG asks for them, instead of building the whole 
+	 * table before the first test runs. Useful for very large tables.
+	 * 
+	 * @return an iterator over the table rows.
+	 * @throws SeleniumWebTestException
+	 */
+	@DataProvider(name = "DataExcelIterator")
+	public Iterator<Object[]> getDataIteratorFromXLS()
+	throws SeleniumWebTestException
+	{
+		return getTableIterator(getSheetName(), getTableName());
+	}
+	
+	/**
+	 * Same as {@link #getDataIteratorFromXLS()}, but TestNG runs the rows 
+	 * in parallel, using the data-provider-thread-count of your suite.
+	 * 
+	 * @return an iterator over the table rows.
+	 * @throws SeleniumWebTestException
+	 */
+	@DataProvider(name = "DataExcelParallel", parallel = true)
+	public Iterator<Object[]> getParallelDataIteratorFromXLS()
+	throws SeleniumWebTestException
+	{
+		return getTableIterator(getSheetName(), getTableName());
+	}
+	
 	/**
 	 * Reads a XLS File and return an array of an array of objects, 
-	 * just like testng data providers
+	 * just like testng data providers. Tables are kept in a process wide 
+	 * {@link TableCache}, so data-driven tests reading the same table do not 
+	 * parse the file again. The cache memory cap, in bytes, is set with 
+	 * selenium.xls.cache.maxBytes.
 	 *
 	 * @param sheetName Excel sheet name
 	 * @param tableName Excel table name
@@ -108,64 +210,120 @@ extends SeleniumWebTest
 	protected String[][] getTableArray(String sheetName, String tableName) 
 	throws SeleniumWebTestException
 	{
-		String[][] tableArray = null;
-	    String xlsFile = getConfiguration().getString("selenium.xls");
-	    
-	    LOGGER.debug("Opening excel file " + xlsFile);
-	    
-		String xlsFilePath = null;
-	    
-		try
+		final File xlsFile = getDataFile();
+		final TableCache cache = TableCache.getInstance();
+		cache.setMaxBytes(getConfiguration().getLong("selenium.xls.cache.maxBytes", TableCache.DEFAULT_MAX_BYTES));
+		return cache.get(xlsFile, sheetName, tableName, new TableCache.Loader()
 		{
-			xlsFilePath = ClassLoader.getSystemResource(xlsFile).getFile();
-			
-			Workbook workbook = Workbook.getWorkbook(new File( xlsFilePath ) );
-			
-			Sheet sheet = workbook.getSheet(sheetName); 
-		    
-		    int startRow, startCol, endRow, endCol, ci, cj;
-		    
-		    Cell tableStart = sheet.findCell(tableName);
-		    startRow = tableStart.getRow();
-		    startCol = tableStart.getColumn();
-
-		    Cell tableEnd= sheet.findCell(tableName, startCol+1,startRow+1, 100, 64000,  false);                
-
-		    endRow=tableEnd.getRow();
-		    endCol=tableEnd.getColumn();
-		    
-		    LOGGER.debug("startRow="+startRow+", endRow="+endRow+", startCol="+startCol+", endCol="+endCol);
-		    
-		    tableArray = new String[endRow-startRow-1][endCol-startCol-1];
-		    ci=0;
-
-		    for (int i=startRow+1;i<endRow;i++,ci++)
-		    {
-		    	cj=0;
-		        for (int j=startCol+1;j<endCol;j++,cj++)
-		        {
-		        	tableArray[ci][cj]=sheet.getCell(j,i).getContents();
-		        }
-		    }
-		    
-		    // TBD: verify if it's really ok to throw this exception here
-		    if ( tableArray.length <= 0 )
-		    {
-		    	throw new SeleniumWebTestException("Empty excel data.");
-		    }
-		    
-			return tableArray;
-		} 
-		catch ( IOException ioe )
+			public String[][] load( File file, String sheetName, String tableName ) 
+			throws SeleniumWebTestException
+			{
+				return readTable(file, sheetName, tableName);
+			}
+		});
+	}
+	
+	/**
+	 * Reads a table from the compiled data cache (see 
+	 * {@link DataCacheCompiler}) if it is up to date, and from the data 
+	 * file otherwise. The cache directory is set with selenium.data.cache.dir.
+	 * 
+	 * @param file data file.
+	 * @param sheetName Excel sheet name
+	 * @param tableName Excel table name
+	 * @return the table.
+	 * @throws SeleniumWebTestException
+	 */
+	protected String[][] readTable(File file, String sheetName, String tableName)
+	throws SeleniumWebTestException
+	{
+		final File cacheDirectory = new File(getConfiguration().getString("selenium.data.cache.dir", 
+				DataCacheCompiler.DEFAULT_CACHE_DIRECTORY));
+		final String[][] table = CompiledTableStore.findTable(cacheDirectory, file, sheetName, tableName);
+		if ( table != null )
 		{
-			LOGGER.error("IO Exception retrieving table array from Excel: " + ioe.getMessage(), ioe);
-			throw new SeleniumWebTestException(ioe);
+			LOGGER.debug("Table " + tableName + " read from compiled data cache");
+			return table;
 		}
-		catch ( BiffException be )
+		return getDataSource(file).readTable(file, sheetName, tableName);
+	}
+	
+	/**
+	 * Returns a typed table, kept in the {@link TableCache} like the text 
+	 * tables.
+	 * 
+	 * @param sheetName Excel sheet name
+	 * @param tableName Excel table name
+	 * @return the typed table.
+	 * @throws SeleniumWebTestException
+	 */
+	protected DataTable getDataTable(String sheetName, String tableName)
+	throws SeleniumWebTestException
+	{
+		final File xlsFile = getDataFile();
+		final TableCache cache = TableCache.getInstance();
+		cache.setMaxBytes(getConfiguration().getLong("selenium.xls.cache.maxBytes", TableCache.DEFAULT_MAX_BYTES));
+		return cache.getDataTable(xlsFile, sheetName, tableName, hasHeaderRow(), new TableCache.Loader()
+		{
+			public String[][] load( File file, String sheetName, String tableName ) 
+			throws SeleniumWebTestException
+			{
+				return readTable(file, sheetName, tableName);
+			}
+		});
+	}
+	
+	/**
+	 * Returns an iterator over the rows of a table. Rows are not cached, and 
+	 * the file is closed once the last row is read.
+	 * 
+	 * @param sheetName Excel sheet name
+	 * @param tableName Excel table name
+	 * @return thread-safe iterator over the table rows.
+	 * @throws SeleniumWebTestException
+	 */
+	protected Iterator<Object[]> getTableIterator(String sheetName, String tableName)
+	throws SeleniumWebTestException
+	{
+		final File xlsFile = getDataFile();
+		return getDataSource(xlsFile).iterateTable(xlsFile, sheetName, tableName);
+	}
+	
+	/**
+	 * @return The data file set in selenium.xls. It is looked up in the 
+	 * file system first, and then in the classpath.
+	 * @throws SeleniumWebTestException if the file could not be found.
+	 */
+	protected File getDataFile()
+	throws SeleniumWebTestException
+	{
+		final String xlsFile = getConfiguration().getString("selenium.xls");
+		File file = new File(xlsFile);
+		if ( ! file.isFile() )
 		{
-			LOGGER.error("Internal error retrieving table array from Excel: " + be.getMessage(), be);
-			throw new SeleniumWebTestException(be);
+			final URL url = ClassLoader.getSystemResource(xlsFile);
+			if ( url == null )
+			{
+				throw new SeleniumWebTestException("Could not find data file " + xlsFile);
+			}
+			file = FileUtils.toFile(url);
 		}
-	}	
+		return file;
+	}
+	
+	/**
+	 * Returns the data source used to read the data file. It is chosen by 
+	 * selenium.data.format, or by the file extension if that is not set. 
+	 * See {@link TableDataSources} for the supported formats.
+	 * 
+	 * @param file data file.
+	 * @return the data source.
+	 * @throws SeleniumWebTestException if the format is not supported.
+	 */
+	protected TableDataSource getDataSource( File file )
+	throws SeleniumWebTestException
+	{
+		return TableDataSources.forFile(file, getConfiguration().getString("selenium.data.format", null));
+	}
 	
 }
@@ -1,22 +1,26 @@
 package br.eti.kinoshita.selenium;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.commons.configuration.CompositeConfiguration;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.commons.configuration.SystemConfiguration;
-import org.apache.commons.lang.StringUtils;
-import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.firefox.FirefoxDriver;
-import org.openqa.selenium.htmlunit.HtmlUnitDriver;
-import org.openqa.selenium.ie.InternetExplorerDriver;
-import org.openqa.selenium.remote.DesiredCapabilities;
-import org.openqa.selenium.remote.RemoteWebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import br.eti.kinoshita.selenium.metrics.CommandMetrics;
+import br.eti.kinoshita.selenium.metrics.InstrumentedWebDriver;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotBuffer;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotPipeline;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotStore;
+import br.eti.kinoshita.selenium.screenshot.VisualComparator;
+import br.eti.kinoshita.selenium.util.Utils;
+
 import com.google.inject.Binder;
 import com.google.inject.Module;
 
@@ -37,7 +41,22 @@ implements Module
 	 */
 	protected static final Configuration CONFIGURATION = new CompositeConfiguration();
 	
-	private static final WebDriver DRIVER;
+	/**
+	 * Pool of drivers shared by all tests. Each test thread gets its own 
+	 * driver from it, so tests can run in parallel. Created by the first 
+	 * module configured.
+	 */
+	private static WebDriverPool driverPool;
+	
+	/**
+	 * Driver that times every command, when selenium.driver.instrument is 
+	 * set, <code>null</code> otherwise.
+	 */
+	private static WebDriver instrumentedDriver;
+	
+	private static boolean initialized = false;
+	
+	private static final AtomicBoolean PREWARMED = new AtomicBoolean(false);
 	
 	/*
 	 * Static constructor.
@@ -56,37 +75,159 @@ implements Module
 		{
 			LOGGER.error("Failed to load selenium.properties: " + ce.getMessage(), ce);
 		}
-		String browser = CONFIGURATION.getString("selenium.browser");
-		
-		if ( ! StringUtils.isBlank(browser) )
+	}
+	
+	/*
+	 * Creates the driver pool and the optional features, once. A bad 
+	 * property fails the injector being created, not the class 
+	 * initialization, and the features created before it are kept.
+	 */
+	private static synchronized void initialize()
+	{
+		if ( initialized )
 		{
-			if ( browser.equals("firefox") )
-			{
-				DRIVER = new FirefoxDriver();
-			}
-			else if ( browser.equals("html") )
-			{
-				DRIVER = new HtmlUnitDriver();
-			}
-			else if ( browser.equals("chrome") )
-			{
-				System.setProperty("webdriver.chrome.driver", "/opt/google/chrome/chromedriver");
-				DRIVER = new ChromeDriver();
-			}
-			else if ( browser.equals("remote") ) 
-			{
-				final Capabilities capabilities = new DesiredCapabilities();
-				DRIVER = new RemoteWebDriver(capabilities);
-			}
-			else
+			return;
+		}
+		if ( driverPool == null )
+		{
+			driverPool = createDriverPool(CONFIGURATION);
+		}
+		if ( instrumentedDriver == null && CommandMetrics.getInstance() == null )
+		{
+			final CommandMetrics metrics = createCommandMetrics(CONFIGURATION);
+			if ( metrics != null )
 			{
-				DRIVER = new InternetExplorerDriver();
+				CommandMetrics.setInstance(metrics);
+				instrumentedDriver = InstrumentedWebDriver.wrap(driverPool.getDriver(), metrics);
 			}
 		}
-		else 
+		if ( ScreenshotPipeline.getInstance() == null )
+		{
+			ScreenshotPipeline.setInstance(createScreenshotPipeline(CONFIGURATION));
+		}
+		if ( ScreenshotBuffer.getInstance() == null )
+		{
+			ScreenshotBuffer.setInstance(createScreenshotBuffer(CONFIGURATION));
+		}
+		if ( VisualComparator.getInstance() == null )
+		{
+			VisualComparator.setInstance(createVisualComparator(CONFIGURATION));
+		}
+		if ( ScreenshotStore.getInstance() == null )
+		{
+			ScreenshotStore.setInstance(createScreenshotStore(CONFIGURATION));
+		}
+		initialized = true;
+	}
+	
+	/**
+	 * @param configuration Selenium configuration.
+	 * @return the pool of drivers, with its shutdown hook registered.
+	 */
+	protected static WebDriverPool createDriverPool( Configuration configuration )
+	{
+		final WebDriverFactory factory = new WebDriverFactory(configuration);
+		final WebDriverPool pool = new WebDriverPool(factory, 
+				configuration.getInt("selenium.driver.pool.size", 1), 
+				configuration.getLong("selenium.driver.pool.timeout", 300000L));
+		final String lifecycle = configuration.getString("selenium.driver.lifecycle", "quit").trim();
+		try
+		{
+			pool.setLifecycle(WebDriverPool.Lifecycle.valueOf(lifecycle.toUpperCase()));
+		}
+		catch ( IllegalArgumentException iae )
 		{
-			DRIVER = new InternetExplorerDriver();
+			LOGGER.warn("Invalid selenium.driver.lifecycle " + lifecycle + ", expected one of " 
+					+ Arrays.toString(WebDriverPool.Lifecycle.values()) + ". Drivers will quit after each test.");
+			pool.setLifecycle(WebDriverPool.Lifecycle.QUIT);
 		}
+		pool.setMaxReuse(configuration.getInt("selenium.driver.maxReuse", 0));
+		pool.registerShutdownHook();
+		return pool;
+	}
+	
+	/**
+	 * @param configuration Selenium configuration.
+	 * @return the command metrics, or <code>null</code> unless 
+	 * selenium.driver.instrument is set.
+	 */
+	protected static CommandMetrics createCommandMetrics( Configuration configuration )
+	{
+		if ( ! configuration.getBoolean("selenium.driver.instrument", false) )
+		{
+			return null;
+		}
+		final CommandMetrics metrics = new CommandMetrics();
+		final String reportFile = configuration.getString("selenium.driver.instrument.file", "target/webdriver-timings.json");
+		metrics.setReportFile(reportFile == null || reportFile.trim().length() == 0 ? null : reportFile.trim());
+		return metrics;
+	}
+	
+	/**
+	 * @param configuration Selenium configuration.
+	 * @return the screen shot pipeline, or <code>null</code> unless 
+	 * selenium.screenshot.async is set.
+	 */
+	protected static ScreenshotPipeline createScreenshotPipeline( Configuration configuration )
+	{
+		if ( ! configuration.getBoolean("selenium.screenshot.async", false) )
+		{
+			return null;
+		}
+		return new ScreenshotPipeline(
+				configuration.getInt("selenium.screenshot.async.threads", 1), 
+				configuration.getInt("selenium.screenshot.async.queue", 16));
+	}
+	
+	/**
+	 * @param configuration Selenium configuration.
+	 * @return the screen shot buffer, or <code>null</code> unless 
+	 * selenium.screenshot.failure.enabled is set.
+	 */
+	protected static ScreenshotBuffer createScreenshotBuffer( Configuration configuration )
+	{
+		if ( ! configuration.getBoolean("selenium.screenshot.failure.enabled", false) )
+		{
+			return null;
+		}
+		return new ScreenshotBuffer(configuration.getInt("selenium.screenshot.failure.frames", 5));
+	}
+	
+	/**
+	 * @param configuration Selenium configuration.
+	 * @return the visual comparator, or <code>null</code> unless 
+	 * selenium.screenshot.baseline.dir is set.
+	 */
+	protected static VisualComparator createVisualComparator( Configuration configuration )
+	{
+		final String baselineDirectory = configuration.getString("selenium.screenshot.baseline.dir", null);
+		if ( baselineDirectory == null || baselineDirectory.trim().length() == 0 )
+		{
+			return null;
+		}
+		final VisualComparator comparator = new VisualComparator(new File(baselineDirectory.trim()), 
+				configuration.getInt("selenium.screenshot.baseline.threads", Runtime.getRuntime().availableProcessors()), 
+				configuration.getInt("selenium.screenshot.baseline.tileHeight", 64));
+		comparator.setHashThreshold(configuration.getInt("selenium.screenshot.baseline.hashThreshold", -1));
+		comparator.setPixelTolerance(configuration.getInt("selenium.screenshot.baseline.pixelTolerance", 0));
+		comparator.setMaxDifference(configuration.getDouble("selenium.screenshot.baseline.maxDifference", 0.0d));
+		return comparator;
+	}
+	
+	/**
+	 * @param configuration Selenium configuration.
+	 * @return the screen shot store, or <code>null</code> unless 
+	 * selenium.screenshot.store is set.
+	 */
+	protected static ScreenshotStore createScreenshotStore( Configuration configuration )
+	{
+		if ( ! configuration.getBoolean("selenium.screenshot.store", false) )
+		{
+			return null;
+		}
+		return new ScreenshotStore(
+				new File(configuration.getString("selenium.screenshot.dir", "target/screenshots")), 
+				configuration.getInt("selenium.screenshot.store.recompressThreads", 0));
 	}
 	
 	/* (non-Javadoc)
@@ -94,8 +235,25 @@ implements Module
 	 */
 	public void configure( Binder binder )
 	{
-		binder.bind(WebDriver.class).toInstance(DRIVER);
+		initialize();
+		// Browsers are launched lazily, when a test calls the driver. If 
+		// selenium.driver.prewarm is set, we start launching them now, while 
+		// TestNG is still instantiating the tests.
+		if ( PREWARMED.compareAndSet(false, true) )
+		{
+			driverPool.prewarm(CONFIGURATION.getInt("selenium.driver.prewarm", 0));
+		}
+		binder.bind(WebDriverPool.class).toInstance(driverPool);
+		if ( instrumentedDriver != null )
+		{
+			binder.bind(WebDriver.class).toInstance(instrumentedDriver);
+		}
+		else
+		{
+			binder.bind(WebDriver.class).toProvider(WebDriverProvider.class);
+		}
 		binder.bind(Configuration.class).toInstance(CONFIGURATION);
+		binder.requestStaticInjection(Utils.class);
 	}
 
 }
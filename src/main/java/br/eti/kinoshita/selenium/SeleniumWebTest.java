@@ -23,29 +23,59 @@
  */
 package br.eti.kinoshita.selenium;
 
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Dimension;
 import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tap4j.ext.testng.TAPAttribute;
 import org.tap4j.ext.testng.TestTAPReporter;
 import org.testng.Assert;
 import org.testng.ITestContext;
+import org.testng.ITestResult;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.AfterTest;
 import org.testng.annotations.Guice;
 import org.testng.annotations.Listeners;
 
+import br.eti.kinoshita.selenium.metrics.CommandMetrics;
+import br.eti.kinoshita.selenium.metrics.TimingsListener;
 import br.eti.kinoshita.selenium.model.SeleniumScreenshot;
+import br.eti.kinoshita.selenium.screenshot.AttachmentRegistry;
+import br.eti.kinoshita.selenium.screenshot.AttachmentRegistry.Invocation;
+import br.eti.kinoshita.selenium.screenshot.FailureScreenshotListener;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotAttachment;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotBuffer;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotCropper;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotBuffer.Frame;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotFlushListener;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotPipeline;
+import br.eti.kinoshita.selenium.screenshot.ScreenshotStore;
+import br.eti.kinoshita.selenium.screenshot.VisualComparator;
+import br.eti.kinoshita.selenium.screenshot.VisualComparator.Comparison;
+import br.eti.kinoshita.selenium.util.RetryStatistics;
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
 
 import com.google.inject.Inject;
 
@@ -53,10 +83,13 @@ import com.google.inject.Inject;
  * <p>This is the base class for TestNG tests that generate TAP Streams (check 
  * the annotation over the class name) and control a Selenium WebDriver.</p>
  * 
- * <p>It contains a static WebDriver and a static Configuration (from 
- * Apache commons). You will have a single WebDriver during your whole test 
- * execution. It probably won't be a problem since the driver itself is not 
- * Thread-Safe.</p>
+ * <p>It contains a WebDriver and a static Configuration (from Apache 
+ * commons). The WebDriver comes from a {@link WebDriverPool}, and each test 
+ * thread gets its own browser. So you can run your tests with TestNG 
+ * parallel="methods" or parallel="classes", as long as 
+ * selenium.driver.pool.size is not smaller than the TestNG thread-count. 
+ * The default size is 1, i.e. a single WebDriver during your whole test 
+ * execution.</p>
  * 
  * <p>The configuration is a composite configuration, consisting of 
  * selenium.properties file properties and system properties. The system 
@@ -77,7 +110,7 @@ import com.google.inject.Inject;
  * @author Cesar Fernandes de Almeida
  * @since 0.1
  */
-@Listeners(value=TestTAPReporter.class)
+@Listeners(value={TestTAPReporter.class, ScreenshotFlushListener.class, FailureScreenshotListener.class, TimingsListener.class})
 @Guice(modules = { SeleniumGuiceModule.class })
 public abstract class SeleniumWebTest 
 {
@@ -94,25 +127,79 @@ public abstract class SeleniumWebTest
 	protected Configuration configuration;
 
 	/**
-	 * Closes the driver and quit. This method is annotated to always run.
+	 * The pool where the driver comes from.
+	 */
+	@Inject
+	protected WebDriverPool driverPool;
+
+	/**
+	 * Returns the driver used by the current thread to the pool. As this 
+	 * is an after method of the base class, TestNG runs it after the after 
+	 * methods of your tests. This method is annotated to always run.
+	 */
+	@AfterMethod(alwaysRun=true)
+	public void releaseDriver()
+	{
+		if (driverPool != null)
+		{
+			driverPool.release();
+		}
+	}
+	
+	/**
+	 * Waits for the screen shots taken by the current thread to be 
+	 * registered, when selenium.screenshot.async is enabled, and publishes 
+	 * the attachments of the test invocation to the test result. This 
+	 * method is annotated to always run.
+	 * 
+	 * @param result TestNG test result.
+	 */
+	@AfterMethod(alwaysRun=true)
+	public void flushScreenShots( ITestResult result )
+	{
+		final ScreenshotPipeline pipeline = ScreenshotPipeline.getInstance();
+		if ( pipeline != null )
+		{
+			pipeline.flush();
+		}
+		AttachmentRegistry.getInstance().publish(result);
+	}
+	
+	/**
+	 * Publishes the WebDriver command timings of the test invocation, 
+	 * when selenium.driver.instrument is enabled, as a "Timings" 
+	 * attribute of the test result. This method is annotated 
+	 * to always run.
+	 * 
+	 * @param result TestNG test result.
+	 */
+	@AfterMethod(alwaysRun=true)
+	public void publishTimings( ITestResult result )
+	{
+		final CommandMetrics metrics = CommandMetrics.getInstance();
+		if ( metrics != null )
+		{
+			metrics.publish(result);
+		}
+	}
+	
+	/**
+	 * Quits, or resets when selenium.driver.lifecycle is reset, the drivers 
+	 * that are not in use by other tests, and logs the attempts of the 
+	 * Utils retry policies. This method is annotated to always run.
 	 */
 	@AfterTest(alwaysRun=true)
 	public void tearDown()
 	{
-		if (driver != null)
+		if (driverPool != null)
 		{
-			LOGGER.info("Closing WebDriver...");
-			try
-			{
-				driver.close();
-				driver.quit();
-
-				LOGGER.info("OK!");
-			} 
-			catch (Throwable t)
-			{
-				LOGGER.warn(t.getMessage(), t);
-			}
+			driverPool.release();
+			driverPool.recycleIdle();
+		}
+		final String retries = RetryStatistics.getInstance().report();
+		if ( retries.length() > 0 )
+		{
+			LOGGER.info("Retries:\n" + retries);
 		}
 	}
 	
@@ -139,18 +226,124 @@ public abstract class SeleniumWebTest
 	 * 
 	 * <p>TBD: Check if we can add a way to pass the file type as parameter.</p>
 	 * 
+	 * <p>With selenium.screenshot.mode=reference the screen shot is moved 
+	 * to selenium.screenshot.dir (target/screenshots by default), and only 
+	 * encoded in Base64 when the TAP Stream is written.</p>
+	 * 
+	 * <p>With selenium.screenshot.failure.enabled=true screen shots are only 
+	 * kept in memory, in a {@link ScreenshotBuffer} with the last 
+	 * selenium.screenshot.failure.frames of each thread. They are written 
+	 * and attached, inline or by reference, only if the test fails or is 
+	 * skipped.</p>
+	 * 
+	 * <p>With selenium.screenshot.async=true only the browser capture 
+	 * happens in the test thread. Writing, encoding and registering the 
+	 * screen shot are done by a {@link ScreenshotPipeline}, and finished 
+	 * after the test method.</p>
+	 * 
+	 * <p>With selenium.screenshot.baseline.dir set, each screen shot is 
+	 * compared with a baseline image by a {@link VisualComparator}. The 
+	 * result is attached, and so is a diff image when they differ.</p>
+	 * 
+	 * <p>With selenium.screenshot.store=true screen shots are kept in a 
+	 * {@link ScreenshotStore}. Identical screen shots are written once, and 
+	 * embedded only once per test context. The other occurrences carry 
+	 * the File-Hash and File-Location of the stored file instead of the 
+	 * File-Content.</p>
+	 * 
 	 * @param context TestNG test context.
 	 * @param method TestNG test method, to which we will link your attribute to.
 	 * @param description Screen shot description.
 	 */
 	public void addScreenShot( ITestContext context, Method method, String description )
+	{
+		addScreenShot(context, method, (Rectangle) null, 1.0d, description);
+	}
+	
+	/**
+	 * Adds a screen shot of an element, cropped from the page screen shot. 
+	 * The screen shot is scaled by selenium.screenshot.scale (1.0 by 
+	 * default).
+	 * 
+	 * @param context TestNG test context.
+	 * @param method TestNG test method, to which we will link your attribute to.
+	 * @param element the element to capture.
+	 * @param description Screen shot description.
+	 */
+	public void addScreenShot( ITestContext context, Method method, WebElement element, String description )
+	{
+		final Point location = element.getLocation();
+		final Dimension size = element.getSize();
+		final Rectangle region = new Rectangle(location.getX(), location.getY(), size.getWidth(), size.getHeight());
+		addScreenShot(context, method, region, getScreenShotScale(), description);
+	}
+	
+	/**
+	 * Adds a screen shot of the first element found by a locator.
+	 * 
+	 * @param context TestNG test context.
+	 * @param method TestNG test method, to which we will link your attribute to.
+	 * @param by the element locator.
+	 * @param description Screen shot description.
+	 * @see #addScreenShot(ITestContext, Method, WebElement, String)
+	 */
+	public void addScreenShot( ITestContext context, Method method, By by, String description )
+	{
+		addScreenShot(context, method, driver.findElement(by), description);
+	}
+	
+	/**
+	 * <p>Adds a screen shot of a region of the page. The page is captured 
+	 * by the browser, and cropped (and scaled) in memory, so only the 
+	 * region is written and embedded. The region is recorded as the 
+	 * File-Region of the attachment.</p>
+	 * 
+	 * <p>The region is in page coordinates, which match the screen shot of 
+	 * drivers that capture the whole page (Firefox, IE). Drivers that only 
+	 * capture the viewport need the region relative to the viewport.</p>
+	 * 
+	 * @param context TestNG test context.
+	 * @param method TestNG test method, to which we will link your attribute to.
+	 * @param region region to capture, or <code>null</code> for the whole page.
+	 * @param scale scale factor, 1.0 keeps the original size.
+	 * @param description Screen shot description.
+	 */
+	public void addScreenShot( final ITestContext context, final Method method, final Rectangle region, final double scale, final String description )
 	{
 		if ( driver instanceof TakesScreenshot )
 		{
 			LOGGER.debug("Taking screenshot with driver " + driver.getTitle());
-			File attachment = ((TakesScreenshot)driver).getScreenshotAs(OutputType.FILE);
-			SeleniumScreenshot screenshot = new SeleniumScreenshot(attachment, description, "image/png", attachment.getName());
-			this.addScreenShot(context, method, screenshot);
+			final ScreenshotBuffer buffer = ScreenshotBuffer.getInstance();
+			if ( buffer != null )
+			{
+				buffer.add(((TakesScreenshot)driver).getScreenshotAs(OutputType.BYTES), description, region, scale);
+				return;
+			}
+			final ScreenshotPipeline pipeline = ScreenshotPipeline.getInstance();
+			if ( pipeline != null )
+			{
+				final byte[] capture = ((TakesScreenshot)driver).getScreenshotAs(OutputType.BYTES);
+				final Invocation invocation = Invocation.current(method);
+				pipeline.submit(new Runnable()
+				{
+					public void run()
+					{
+						addScreenShot(context, invocation, newScreenShot(capture, region, scale, description));
+					}
+				});
+				return;
+			}
+			if ( region == null && scale == 1.0d )
+			{
+				File attachment = ((TakesScreenshot)driver).getScreenshotAs(OutputType.FILE);
+				SeleniumScreenshot screenshot = new SeleniumScreenshot(attachment, description, "image/png", attachment.getName());
+				this.addScreenShot(context, method, screenshot);
+			}
+			else
+			{
+				final byte[] capture = ((TakesScreenshot)driver).getScreenshotAs(OutputType.BYTES);
+				this.addScreenShot(context, method, newScreenShot(capture, region, scale, description));
+			}
 		}
 		else
 		{
@@ -164,7 +357,7 @@ public abstract class SeleniumWebTest
 	/**
 	 * <p>In this method, your screen shot will be converted into a TAP Stream 
 	 * and then put into a TAPAttribute object. This object will be stored in 
-	 * TestNG Test Context.</p>
+	 * the TestNG Test Result when the test method finishes.</p>
 	 * 
 	 * <p>Later, TestTAPReporter from tap4j.org project has the logic to 
 	 * transform it into a YAMLish diagnostic entry in your TAP Stream. From 
@@ -179,26 +372,154 @@ public abstract class SeleniumWebTest
 	 * @param method TestNG test method, to which we will link your attribute to.
 	 * @param screenshot A screen shot, that will be added to a TAPAttribute.
 	 */
-	@SuppressWarnings("unchecked")
 	protected void addScreenShot( ITestContext context, Method method, SeleniumScreenshot screenshot )
 	{
-		final Object o = context.getAttribute("Files");
-		Map<String, Object> filesMap = null;
-		if ( o == null )
+		addScreenShot(context, Invocation.current(method), screenshot);
+	}
+	
+	/**
+	 * Adds a screen shot to the attachments of a test invocation. They are 
+	 * kept in the {@link AttachmentRegistry} until the invocation finishes, 
+	 * so concurrent methods and data-driven rows do not overwrite each 
+	 * other's screen shots.
+	 * 
+	 * @param context TestNG test context.
+	 * @param invocation test invocation, to which we will link your attribute to.
+	 * @param screenshot A screen shot, that will be added to a TAPAttribute.
+	 */
+	protected void addScreenShot( ITestContext context, Invocation invocation, SeleniumScreenshot screenshot )
+	{
+		final VisualComparator comparator = VisualComparator.getInstance();
+		if ( comparator != null )
+		{
+			compareScreenShot(context, invocation, screenshot, comparator);
+		}
+		addAttachment(context, invocation, screenshot);
+	}
+	
+	/**
+	 * Compares a screen shot with its baseline, and attaches the result 
+	 * and, if they differ, the diff image.
+	 * 
+	 * @param context TestNG test context.
+	 * @param invocation test invocation.
+	 * @param screenshot screen shot.
+	 * @param comparator visual comparator.
+	 */
+	protected void compareScreenShot( ITestContext context, Invocation invocation, SeleniumScreenshot screenshot, VisualComparator comparator )
+	{
+		final File file = screenshot.getFile();
+		final Comparison comparison = comparator.compare(file, comparator.getBaseline(getBaselineName(invocation, screenshot)));
+		AttachmentRegistry.getInstance().add(invocation, file.getAbsolutePath() + "#visual", comparison.toMap());
+		if ( comparison.getResult() == VisualComparator.Result.DIFFERENT )
 		{
-			filesMap = new LinkedHashMap<String, Object>();
+			LOGGER.warn("Screen shot " + screenshot.getDescription() + " differs from " + comparison.getBaseline() + " (" + comparison.getScore() + ")");
+			final File diff = comparison.getDiff();
+			addAttachment(context, invocation, new SeleniumScreenshot(diff, "Differences from baseline: " + screenshot.getDescription(), "image/png", diff.getName()));
 		}
-		else 
+	}
+	
+	/**
+	 * Name of the baseline of a screen shot: test class, method, a hash of 
+	 * the parameters (data-driven tests) and the screen shot description.
+	 * 
+	 * @param invocation test invocation.
+	 * @param screenshot screen shot.
+	 * @return the baseline name.
+	 */
+	protected String getBaselineName( Invocation invocation, SeleniumScreenshot screenshot )
+	{
+		final Method method = invocation.getMethod();
+		final StringBuilder name = new StringBuilder();
+		name.append(method.getDeclaringClass().getSimpleName()).append('.').append(method.getName());
+		if ( ! invocation.getParameters().isEmpty() )
 		{
-			TAPAttribute attr = (TAPAttribute)o;
-			if ( attr.getMethod() != method )
+			// hash codes of beans and arrays change on every run
+			name.append('-').append(DigestUtils.md5Hex(toStableString(invocation.getParameters())).substring(0, 8));
+		}
+		name.append('-').append(screenshot.getDescription());
+		return name.toString();
+	}
+	
+	/*
+	 * String form of test parameters that is the same on every run. Arrays 
+	 * and objects without toString, like data beans, are printed field by 
+	 * field.
+	 */
+	private static String toStableString( Object value )
+	{
+		if ( value == null )
+		{
+			return "null";
+		}
+		if ( value instanceof Collection<?> )
+		{
+			return toStableString(((Collection<?>) value).toArray());
+		}
+		if ( value instanceof Object[] )
+		{
+			final StringBuilder text = new StringBuilder("[");
+			for ( Object element : (Object[]) value )
 			{
-				filesMap = new LinkedHashMap<String, Object>();
+				text.append(toStableString(element)).append(',');
 			}
-			else
+			return text.append(']').toString();
+		}
+		if ( value.getClass().isArray() )
+		{
+			return ArrayUtils.toString(value);
+		}
+		try
+		{
+			if ( value.getClass().getMethod("toString").getDeclaringClass() == Object.class )
+			{
+				return ToStringBuilder.reflectionToString(value, ToStringStyle.SHORT_PREFIX_STYLE);
+			}
+		}
+		catch ( NoSuchMethodException nsme )
+		{
+			// every class has toString
+		}
+		return value.toString();
+	}
+	
+	private void addAttachment( ITestContext context, Invocation invocation, SeleniumScreenshot screenshot )
+	{
+		final AttachmentRegistry registry = AttachmentRegistry.getInstance();
+		
+		final ScreenshotStore store = ScreenshotStore.getInstance();
+		if ( store != null )
+		{
+			final File original = screenshot.getFile();
+			final String hash = store.put(original);
+			final File stored = store.getFile(hash, FilenameUtils.getExtension(original.getName()));
+			if ( ! store.embedOnce(context, hash) )
 			{
-				filesMap = (Map<String, Object>) attr.getValue();
+				// Same content already embedded in this context, so we only 
+				// refer to it by its location and hash
+				final Map<String, Object> fileMap = new LinkedHashMap<String, Object>();
+				fileMap.put("File-Location", stored.getAbsolutePath() );
+				fileMap.put("File-Title", screenshot.getTitle() );
+				fileMap.put("File-Description", screenshot.getDescription() );
+				fileMap.put("File-Size", stored.length() );
+				fileMap.put("File-Name", stored.getName());
+				fileMap.put("File-Hash", hash);
+				fileMap.put("File-Type", screenshot.getFileType());
+				if ( screenshot.getRegion() != null )
+				{
+					fileMap.put("File-Region", ScreenshotCropper.toRegionMap(screenshot));
+				}
+				registry.add(invocation, original.getAbsolutePath(), fileMap);
+				return;
 			}
+			screenshot = relocate(screenshot, stored);
+		}
+		
+		if ( isReferenceScreenShotMode() )
+		{
+			final File spooled = ScreenshotAttachment.spool(screenshot.getFile(), getScreenShotDirectory());
+			registry.add(invocation, spooled.getAbsolutePath(), ScreenshotAttachment.reference(relocate(screenshot, spooled)));
+			return;
 		}
 		
 		final Map<String, Object> fileMap = new LinkedHashMap<String, Object>();
@@ -226,11 +547,120 @@ public abstract class SeleniumWebTest
 		
 		fileMap.put("File-Content", content);
 		fileMap.put("File-Type", screenshot.getFileType());
+		if ( screenshot.getRegion() != null )
+		{
+			fileMap.put("File-Region", ScreenshotCropper.toRegionMap(screenshot));
+		}
 		
-		filesMap.put(file.getAbsolutePath(), fileMap);
-		
-		final TAPAttribute attribute = new TAPAttribute(method, filesMap);
-		context.setAttribute("Files", attribute);
+		registry.add(invocation, file.getAbsolutePath(), fileMap);
+	}
+	
+	/**
+	 * Writes the screen shots kept in the {@link ScreenshotBuffer} by the 
+	 * current thread, and attaches them to the test result. Called by 
+	 * {@link FailureScreenshotListener} when a test fails or is skipped.
+	 * 
+	 * @param result TestNG test result.
+	 */
+	public void addBufferedScreenShots( ITestResult result )
+	{
+		final ScreenshotBuffer buffer = ScreenshotBuffer.getInstance();
+		if ( buffer == null )
+		{
+			return;
+		}
+		final List<Frame> frames = buffer.drain();
+		if ( frames.isEmpty() )
+		{
+			return;
+		}
+		final Invocation invocation = Invocation.of(result);
+		for ( Frame frame : frames )
+		{
+			final SeleniumScreenshot screenshot = newScreenShot(frame.getCapture(), frame.getRegion(), frame.getScale(), frame.getDescription());
+			addScreenShot(result.getTestContext(), invocation, screenshot);
+		}
+		AttachmentRegistry.getInstance().publish(result);
+	}
+	
+	/**
+	 * Crops a captured screen shot, and writes it into the screen shot 
+	 * directory.
+	 * 
+	 * @param capture PNG bytes.
+	 * @param region region to keep, or <code>null</code> for the whole page.
+	 * @param scale scale factor.
+	 * @param description Screen shot description.
+	 * @return the screen shot.
+	 */
+	protected SeleniumScreenshot newScreenShot( byte[] capture, Rectangle region, double scale, String description )
+	{
+		final File attachment = writeScreenShot(ScreenshotCropper.crop(capture, region, scale));
+		final SeleniumScreenshot screenshot = new SeleniumScreenshot(attachment, description, "image/png", attachment.getName());
+		screenshot.setRegion(region);
+		screenshot.setScale(scale);
+		return screenshot;
+	}
+	
+	/*
+	 * Copy of a screen shot, pointing to another file.
+	 */
+	private SeleniumScreenshot relocate( SeleniumScreenshot screenshot, File file )
+	{
+		final SeleniumScreenshot relocated = new SeleniumScreenshot(file, screenshot.getDescription(), screenshot.getFileType(), screenshot.getTitle());
+		relocated.setRegion(screenshot.getRegion());
+		relocated.setScale(screenshot.getScale());
+		return relocated;
+	}
+	
+	/**
+	 * Writes a captured screen shot into the screen shot directory.
+	 * 
+	 * @param capture PNG bytes.
+	 * @return the screen shot file.
+	 */
+	protected File writeScreenShot( byte[] capture )
+	{
+		try
+		{
+			final File directory = getScreenShotDirectory();
+			FileUtils.forceMkdir(directory);
+			final File file = File.createTempFile("screenshot", ".png", directory);
+			FileUtils.writeByteArrayToFile(file, capture);
+			return file;
+		}
+		catch ( IOException ioe )
+		{
+			throw new SeleniumWebTestException("Failed to write screen shot.", ioe);
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> when selenium.screenshot.mode is reference, 
+	 * i.e. screen shots are spooled to disk and encoded only when the TAP 
+	 * Stream is written.
+	 */
+	protected boolean isReferenceScreenShotMode()
+	{
+		return configuration != null && "reference".equalsIgnoreCase(configuration.getString("selenium.screenshot.mode", "inline"));
+	}
+	
+	/**
+	 * @return the scale of element screen shots (selenium.screenshot.scale).
+	 */
+	protected double getScreenShotScale()
+	{
+		return configuration != null ? configuration.getDouble("selenium.screenshot.scale", 1.0d) : 1.0d;
+	}
+	
+	/**
+	 * @return the directory where screen shots are spooled 
+	 * (selenium.screenshot.dir).
+	 */
+	protected File getScreenShotDirectory()
+	{
+		final String directory = configuration != null ? configuration.getString("selenium.screenshot.dir", "target/screenshots") : "target/screenshots";
+		return new File(directory);
 	}
 	
 }
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.firefox.FirefoxDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import org.openqa.selenium.ie.InternetExplorerDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Creates WebDriver instances for the browser set in
+ * selenium.properties (selenium.browser). This is the logic that used to
+ * live in the static constructor of {@link SeleniumGuiceModule}.</p>
+ *
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class WebDriverFactory
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( WebDriverFactory.class );
+
+	private final String browser;
+
+	/**
+	 * @param configuration Selenium configuration.
+	 */
+	public WebDriverFactory( Configuration configuration )
+	{
+		this.browser = configuration.getString("selenium.browser", null);
+	}
+
+	/**
+	 * @return the browser name, as found in selenium.properties. It may be
+	 * <code>null</code>.
+	 */
+	public String getBrowser()
+	{
+		return this.browser;
+	}
+
+	/**
+	 * @return The class of the drivers created by this factory. Useful to
+	 * know which interfaces (TakesScreenshot, JavascriptExecutor, etc) the
+	 * drivers implement before creating any.
+	 */
+	public Class<? extends WebDriver> getDriverClass()
+	{
+		if ( ! StringUtils.isBlank(browser) )
+		{
+			if ( browser.equals("firefox") )
+			{
+				return FirefoxDriver.class;
+			}
+			else if ( browser.equals("html") )
+			{
+				return HtmlUnitDriver.class;
+			}
+			else if ( browser.equals("chrome") )
+			{
+				return ChromeDriver.class;
+			}
+			else if ( browser.equals("remote") )
+			{
+				return RemoteWebDriver.class;
+			}
+		}
+		return InternetExplorerDriver.class;
+	}
+
+	/**
+	 * Creates a new driver. Beware, this usually means launching a new browser.
+	 *
+	 * @return a new WebDriver.
+	 */
+	public WebDriver newDriver()
+	{
+		LOGGER.info("Launching new WebDriver for browser " + browser);
+		final Class<? extends WebDriver> driverClass = getDriverClass();
+		if ( driverClass == FirefoxDriver.class )
+		{
+			return new FirefoxDriver();
+		}
+		else if ( driverClass == HtmlUnitDriver.class )
+		{
+			return new HtmlUnitDriver();
+		}
+		else if ( driverClass == ChromeDriver.class )
+		{
+			System.setProperty("webdriver.chrome.driver", "/opt/google/chrome/chromedriver");
+			return new ChromeDriver();
+		}
+		else if ( driverClass == RemoteWebDriver.class )
+		{
+			final Capabilities capabilities = new DesiredCapabilities();
+			return new RemoteWebDriver(capabilities);
+		}
+		return new InternetExplorerDriver();
+	}
+
+}
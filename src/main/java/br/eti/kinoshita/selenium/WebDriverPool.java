@@ -0,0 +1,573 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ClassUtils;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>A bounded pool of WebDrivers. Each test thread leases its own driver,
+ * so TestNG can run tests with parallel="methods" or parallel="classes"
+ * without threads fighting over a single browser.</p>
+ *
+ * <p>Tests do not talk to the pool directly. They use the driver returned
+ * by {@link #getDriver()}, which is a thread bound proxy. Every call made
+ * through it is dispatched to the driver leased by the calling thread,
+ * leasing one on the first call. This is necessary because TestNG
+ * injects the test instance fields only once, but with parallel="methods"
+ * the methods of the same instance run in different threads.</p>
+ *
+ * <p>Leases are returned with {@link #release()} after each test method
+ * (see {@link SeleniumWebTest}). Idle drivers are handed out in LIFO
+ * order, so a single thread running a class gets the same browser back
+ * for every method, just like before.</p>
+ * 
+ * <p>No browser is launched until a test actually calls the driver. 
+ * Optionally, {@link #prewarm(int)} launches browsers in background 
+ * threads, so that browser startup overlaps with TestNG setting up the 
+ * suite.</p>
+ * 
+ * <p>At the end of a test, idle drivers are either quit or reset, depending 
+ * on the {@link Lifecycle}. Resetting a driver (clearing cookies, storage 
+ * and extra windows) is much cheaper than launching a new browser.</p>
+ *
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class WebDriverPool
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( WebDriverPool.class );
+
+	/**
+	 * What to do with idle drivers at the end of a test.
+	 */
+	public enum Lifecycle 
+	{
+		/**
+		 * Quit the browser. A new one is launched for the next test.
+		 */
+		QUIT, 
+		/**
+		 * Reset the browser session and keep the browser open. It will be 
+		 * quit only when the JVM exits or when it reaches the maximum 
+		 * number of reuses.
+		 */
+		RESET
+	}
+
+	private static final String CLEAR_STORAGE_SCRIPT = 
+			"try { window.localStorage.clear(); } catch (e) {} " + 
+			"try { window.sessionStorage.clear(); } catch (e) {}";
+
+	private final WebDriverFactory factory;
+	private final int size;
+	private final long acquireTimeout;
+
+	/*
+	 * One permit per lease. Drivers are only created while holding a
+	 * permit and no idle driver is available, so we never have more than
+	 * size browsers alive.
+	 */
+	private final Semaphore permits;
+	private final LinkedList<WebDriver> idle = new LinkedList<WebDriver>();
+	private final Set<WebDriver> live = Collections.synchronizedSet( new HashSet<WebDriver>() );
+	private final LinkedList<Future<WebDriver>> warming = new LinkedList<Future<WebDriver>>();
+	private final ThreadLocal<WebDriver> leased = new ThreadLocal<WebDriver>();
+	private final Map<WebDriver, Integer> reuses = Collections.synchronizedMap( new HashMap<WebDriver, Integer>() );
+
+	private Lifecycle lifecycle = Lifecycle.QUIT;
+	private int maxReuse = 0;
+
+	private final WebDriver threadBoundDriver;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param factory WebDriver factory.
+	 * @param size Maximum number of drivers alive at the same time.
+	 * @param acquireTimeout Time in milliseconds that a thread waits for a
+	 * driver when all of them are leased.
+	 */
+	public WebDriverPool( WebDriverFactory factory, int size, long acquireTimeout )
+	{
+		if ( size < 1 )
+		{
+			throw new IllegalArgumentException("Invalid driver pool size: " + size);
+		}
+		this.factory = factory;
+		this.size = size;
+		this.acquireTimeout = acquireTimeout;
+		this.permits = new Semaphore(size, true);
+		this.threadBoundDriver = createThreadBoundDriver();
+	}
+
+	/**
+	 * @return Maximum number of drivers alive at the same time.
+	 */
+	public int getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return What happens with idle drivers at the end of a test.
+	 */
+	public Lifecycle getLifecycle()
+	{
+		return this.lifecycle;
+	}
+
+	public void setLifecycle( Lifecycle lifecycle )
+	{
+		this.lifecycle = lifecycle;
+	}
+
+	/**
+	 * @return How many times a driver can be reset before being quit. Zero 
+	 * means no limit.
+	 */
+	public int getMaxReuse()
+	{
+		return this.maxReuse;
+	}
+
+	public void setMaxReuse( int maxReuse )
+	{
+		this.maxReuse = maxReuse;
+	}
+
+	/**
+	 * @return A WebDriver that dispatches every call to the driver leased by
+	 * the calling thread.
+	 */
+	public WebDriver getDriver()
+	{
+		return this.threadBoundDriver;
+	}
+
+	/**
+	 * Leases a driver to the current thread. If the thread already has one,
+	 * it is returned. Otherwise an idle driver is reused, or a new one
+	 * created, waiting until a driver is released if the pool is exhausted.
+	 *
+	 * @return the driver leased by the current thread.
+	 */
+	public WebDriver acquire()
+	{
+		WebDriver driver = leased.get();
+		if ( driver != null )
+		{
+			return driver;
+		}
+		if ( closed )
+		{
+			throw new SeleniumWebTestException("WebDriver pool has been shut down.");
+		}
+		try
+		{
+			if ( ! permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS) )
+			{
+				throw new SeleniumWebTestException("Timed out waiting " + acquireTimeout
+						+ "ms for a WebDriver. Is selenium.driver.pool.size (" + size
+						+ ") smaller than the number of TestNG threads?");
+			}
+		}
+		catch ( InterruptedException ie )
+		{
+			Thread.currentThread().interrupt();
+			throw new SeleniumWebTestException(ie);
+		}
+		try
+		{
+			Future<WebDriver> warm = null;
+			synchronized ( idle )
+			{
+				driver = idle.poll();
+				if ( driver == null )
+				{
+					warm = warming.poll();
+				}
+			}
+			if ( warm != null )
+			{
+				driver = awaitWarmDriver(warm);
+			}
+			if ( driver == null )
+			{
+				driver = factory.newDriver();
+				live.add(driver);
+			}
+		}
+		catch ( RuntimeException re )
+		{
+			permits.release();
+			throw re;
+		}
+		leased.set(driver);
+		return driver;
+	}
+
+	/**
+	 * Launches up to count drivers in background threads. They are handed 
+	 * out by {@link #acquire()} as soon as they are ready, so tests waiting 
+	 * for them do not launch extra browsers. The number of drivers is still 
+	 * limited by the pool size.
+	 * 
+	 * @param count How many drivers to launch.
+	 */
+	public void prewarm( int count )
+	{
+		final int available;
+		synchronized ( idle )
+		{
+			// drivers that finished warming are already live
+			int launching = 0;
+			for ( Future<WebDriver> warm : warming )
+			{
+				if ( ! warm.isDone() )
+				{
+					++launching;
+				}
+			}
+			available = Math.min(count, size - live.size() - launching);
+		}
+		if ( available <= 0 || closed )
+		{
+			return;
+		}
+		LOGGER.info("Pre-warming " + available + " WebDriver(s) in background...");
+		final ExecutorService executor = Executors.newFixedThreadPool(available, new ThreadFactory()
+		{
+			public Thread newThread( Runnable r )
+			{
+				final Thread t = new Thread(r, "webdriver-prewarm");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for ( int i = 0 ; i < available ; ++i )
+		{
+			final Future<WebDriver> future = executor.submit(new Callable<WebDriver>()
+			{
+				public WebDriver call()
+				throws Exception
+				{
+					final WebDriver driver = factory.newDriver();
+					live.add(driver);
+					if ( closed )
+					{
+						quit(driver);
+					}
+					return driver;
+				}
+			});
+			synchronized ( idle )
+			{
+				warming.add(future);
+			}
+		}
+		executor.shutdown();
+	}
+
+	/*
+	 * Waits for a driver being launched in background. Returns null if its 
+	 * launch failed, so the caller creates a new one.
+	 */
+	private WebDriver awaitWarmDriver( Future<WebDriver> warm )
+	{
+		try
+		{
+			return warm.get();
+		}
+		catch ( InterruptedException ie )
+		{
+			Thread.currentThread().interrupt();
+			throw new SeleniumWebTestException(ie);
+		}
+		catch ( ExecutionException ee )
+		{
+			LOGGER.warn("Failed to pre-warm WebDriver: " + ee.getCause().getMessage(), ee.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the driver leased by the current thread, if any, to the pool.
+	 */
+	public void release()
+	{
+		final WebDriver driver = leased.get();
+		if ( driver == null )
+		{
+			return;
+		}
+		leased.remove();
+		if ( closed )
+		{
+			quit(driver);
+		}
+		else
+		{
+			synchronized ( idle )
+			{
+				idle.addFirst(driver);
+			}
+		}
+		permits.release();
+	}
+
+	/**
+	 * Quits all drivers that are not leased at the moment. Drivers in use
+	 * by other threads are not touched. New ones will be created if needed.
+	 */
+	public void quitIdle()
+	{
+		final List<WebDriver> drivers;
+		synchronized ( idle )
+		{
+			drivers = new ArrayList<WebDriver>(idle);
+			idle.clear();
+		}
+		for ( WebDriver driver : drivers )
+		{
+			quit(driver);
+		}
+	}
+
+	/**
+	 * Called at the end of a test. Quits or resets the idle drivers, 
+	 * according to the pool {@link Lifecycle}.
+	 */
+	public void recycleIdle()
+	{
+		if ( lifecycle == Lifecycle.QUIT )
+		{
+			quitIdle();
+			return;
+		}
+		final List<WebDriver> drivers;
+		synchronized ( idle )
+		{
+			drivers = new ArrayList<WebDriver>(idle);
+			idle.clear();
+		}
+		final List<WebDriver> recycled = new ArrayList<WebDriver>(drivers.size());
+		for ( WebDriver driver : drivers )
+		{
+			Integer count = reuses.get(driver);
+			int uses = count == null ? 1 : count.intValue() + 1;
+			if ( maxReuse > 0 && uses > maxReuse )
+			{
+				LOGGER.debug("WebDriver reached the maximum of " + maxReuse + " reuses");
+				quit(driver);
+			}
+			else if ( reset(driver) )
+			{
+				reuses.put(driver, uses);
+				recycled.add(driver);
+			}
+			else
+			{
+				quit(driver);
+			}
+		}
+		synchronized ( idle )
+		{
+			idle.addAll(0, recycled);
+		}
+	}
+
+	/**
+	 * Resets the browser session: closes all windows but one, deletes the 
+	 * cookies, clears local and session storage and navigates to 
+	 * about:blank. Note that WebDriver only deletes the cookies visible 
+	 * from the current page.
+	 * 
+	 * @param driver WebDriver
+	 * @return <code>true</code> if the driver was reset, <code>false</code> 
+	 * if it failed and should be discarded.
+	 */
+	protected boolean reset( WebDriver driver )
+	{
+		LOGGER.info("Resetting WebDriver session...");
+		try
+		{
+			final Iterator<String> handles = driver.getWindowHandles().iterator();
+			final String main = handles.next();
+			while ( handles.hasNext() )
+			{
+				driver.switchTo().window(handles.next());
+				driver.close();
+			}
+			driver.switchTo().window(main);
+			driver.manage().deleteAllCookies();
+			if ( driver instanceof JavascriptExecutor )
+			{
+				((JavascriptExecutor)driver).executeScript(CLEAR_STORAGE_SCRIPT);
+			}
+			driver.get("about:blank");
+			LOGGER.info("OK!");
+			return true;
+		}
+		catch ( Throwable t )
+		{
+			LOGGER.warn("Failed to reset WebDriver session: " + t.getMessage(), t);
+			return false;
+		}
+	}
+
+	/**
+	 * Quits every driver created by this pool, leased or not. After this
+	 * method is called, the pool cannot be used anymore.
+	 */
+	public void shutdown()
+	{
+		closed = true;
+		final Set<WebDriver> drivers;
+		synchronized ( live )
+		{
+			drivers = new LinkedHashSet<WebDriver>(live);
+		}
+		synchronized ( idle )
+		{
+			idle.clear();
+			for ( Future<WebDriver> warm : warming )
+			{
+				warm.cancel(false);
+			}
+			warming.clear();
+		}
+		for ( WebDriver driver : drivers )
+		{
+			quit(driver);
+		}
+	}
+
+	/**
+	 * Registers a JVM shutdown hook that quits all drivers left open.
+	 */
+	public void registerShutdownHook()
+	{
+		Runtime.getRuntime().addShutdownHook( new Thread("webdriver-pool-shutdown")
+		{
+			public void run()
+			{
+				shutdown();
+			}
+		});
+	}
+
+	protected void quit( WebDriver driver )
+	{
+		live.remove(driver);
+		reuses.remove(driver);
+		LOGGER.info("Closing WebDriver...");
+		try
+		{
+			driver.quit();
+			LOGGER.info("OK!");
+		}
+		catch ( Throwable t )
+		{
+			LOGGER.warn(t.getMessage(), t);
+		}
+	}
+
+	/*
+	 * Creates a proxy implementing all the interfaces of the configured
+	 * driver class, so that checks like driver instanceof TakesScreenshot
+	 * keep working.
+	 */
+	@SuppressWarnings("unchecked")
+	private WebDriver createThreadBoundDriver()
+	{
+		final Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		interfaces.add(WebDriver.class);
+		interfaces.addAll( (List<Class<?>>) ClassUtils.getAllInterfaces(factory.getDriverClass()) );
+		return (WebDriver) Proxy.newProxyInstance(
+				WebDriverPool.class.getClassLoader(),
+				interfaces.toArray(new Class<?>[interfaces.size()]),
+				new ThreadBoundHandler());
+	}
+
+	private class ThreadBoundHandler
+	implements InvocationHandler
+	{
+		public Object invoke( Object proxy, Method method, Object[] args )
+		throws Throwable
+		{
+			if ( method.getDeclaringClass() == Object.class )
+			{
+				// Do not launch a browser just to log or compare the proxy
+				if ( method.getName().equals("equals") )
+				{
+					return proxy == args[0];
+				}
+				else if ( method.getName().equals("hashCode") )
+				{
+					return System.identityHashCode(proxy);
+				}
+				return "Thread bound " + factory.getDriverClass().getSimpleName();
+			}
+			try
+			{
+				return method.invoke(acquire(), args);
+			}
+			catch ( InvocationTargetException ite )
+			{
+				throw ite.getTargetException();
+			}
+		}
+	}
+
+}
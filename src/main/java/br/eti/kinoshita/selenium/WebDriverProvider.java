@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium;
+
+import org.openqa.selenium.WebDriver;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * <p>Guice provider for the WebDriver injected in tests. It does not launch 
+ * any browser. The driver returned is bound to the pool, and a browser is 
+ * only leased (and launched, if there is no idle one) when a test calls 
+ * one of its methods. So tests that never use the driver start right 
+ * away.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class WebDriverProvider 
+implements Provider<WebDriver>
+{
+
+	private final WebDriverPool driverPool;
+	
+	@Inject
+	public WebDriverProvider( WebDriverPool driverPool )
+	{
+		this.driverPool = driverPool;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.google.inject.Provider#get()
+	 */
+	public WebDriver get()
+	{
+		return driverPool.getDriver();
+	}
+	
+}
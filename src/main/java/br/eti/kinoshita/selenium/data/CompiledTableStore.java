@@ -0,0 +1,422 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>A compact binary cache of data tables, created at build time by 
+ * {@link DataCacheCompiler} and memory-mapped at runtime, so that tests do 
+ * not parse spreadsheets when they start.</p>
+ * 
+ * <p>The file contains a header with a magic number, the format version, 
+ * and the length and CRC32 of the source data file. It is followed by an 
+ * index of the tables and their offsets. Each table has its number of rows 
+ * and columns, a dictionary with its distinct cell values, and the 
+ * dictionary codes of the cells. Numbers are big-endian and text is 
+ * UTF-8.</p>
+ * 
+ * <p>The cache is only used if it was created from the same source data, 
+ * otherwise callers fall back to reading the data file.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class CompiledTableStore
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( CompiledTableStore.class );
+	
+	private static final int MAGIC = 0x53444331; // SDC1
+	
+	/**
+	 * Current format version. Caches with other versions are ignored.
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Extension of the cache files, appended to the data file name.
+	 */
+	public static final String EXTENSION = ".sdc";
+	
+	/*
+	 * Stores opened by cache file path, so that each file is checked and 
+	 * mapped only once per run.
+	 */
+	private static final Map<String, CompiledTableStore> STORES = new HashMap<String, CompiledTableStore>();
+	
+	private final ByteBuffer buffer;
+	private final Map<String, Long> offsets;
+	private final long sourceLength;
+	private final long sourceChecksum;
+	private final long lastModified;
+	private long verifiedSourceModified = -1L;
+	
+	private CompiledTableStore( ByteBuffer buffer, Map<String, Long> offsets, 
+			long sourceLength, long sourceChecksum, long lastModified )
+	{
+		this.buffer = buffer;
+		this.offsets = offsets;
+		this.sourceLength = sourceLength;
+		this.sourceChecksum = sourceChecksum;
+		this.lastModified = lastModified;
+	}
+	
+	/**
+	 * @param cacheDirectory directory with the cache files.
+	 * @param source data file.
+	 * @return the cache file for a data file.
+	 */
+	public static File getCacheFile( File cacheDirectory, File source )
+	{
+		return new File(cacheDirectory, source.getName() + EXTENSION);
+	}
+	
+	/**
+	 * Looks for a table in the compiled cache of a data file.
+	 * 
+	 * @param cacheDirectory directory with the cache files.
+	 * @param source data file.
+	 * @param sheetName sheet name.
+	 * @param tableName table name.
+	 * @return the table, or <code>null</code> if there is no cache, if it is 
+	 * stale or if it does not contain the table.
+	 */
+	public static String[][] findTable( File cacheDirectory, File source, String sheetName, String tableName )
+	{
+		final File cacheFile = getCacheFile(cacheDirectory, source);
+		if ( ! cacheFile.isFile() )
+		{
+			return null;
+		}
+		try
+		{
+			final CompiledTableStore store = open(cacheFile);
+			if ( store == null || ! store.isFresh(source) )
+			{
+				LOGGER.debug("Compiled data cache " + cacheFile + " is stale");
+				return null;
+			}
+			return store.readTable(sheetName, tableName);
+		}
+		catch ( IOException ioe )
+		{
+			LOGGER.warn("Failed to read compiled data cache " + cacheFile + ": " + ioe.getMessage(), ioe);
+			return null;
+		}
+		catch ( RuntimeException re )
+		{
+			// truncated or corrupt file, e.g. written by an interrupted build
+			LOGGER.warn("Corrupt compiled data cache " + cacheFile + ", reading " + source + " instead: " + re.getMessage(), re);
+			synchronized ( STORES )
+			{
+				STORES.remove(cacheFile.getAbsolutePath());
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Opens and memory-maps a cache file.
+	 * 
+	 * @param cacheFile cache file.
+	 * @return the store, or <code>null</code> if the file has another 
+	 * format or version.
+	 * @throws IOException
+	 */
+	public static CompiledTableStore open( File cacheFile )
+	throws IOException
+	{
+		final String key = cacheFile.getAbsolutePath();
+		synchronized ( STORES )
+		{
+			final CompiledTableStore store = STORES.get(key);
+			if ( store != null && store.lastModified == cacheFile.lastModified() )
+			{
+				return store;
+			}
+		}
+		final RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+		final ByteBuffer buffer;
+		try
+		{
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally
+		{
+			raf.close();
+		}
+		if ( buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION )
+		{
+			return null;
+		}
+		final long sourceLength = buffer.getLong();
+		final long sourceChecksum = buffer.getLong();
+		final int tables = buffer.getInt();
+		final Map<String, Long> offsets = new HashMap<String, Long>();
+		for ( int i = 0 ; i < tables ; ++i )
+		{
+			final String sheetName = readString(buffer);
+			final String tableName = readString(buffer);
+			offsets.put(key(sheetName, tableName), Long.valueOf(buffer.getLong()));
+		}
+		final CompiledTableStore store = new CompiledTableStore(buffer, offsets, 
+				sourceLength, sourceChecksum, cacheFile.lastModified());
+		synchronized ( STORES )
+		{
+			STORES.put(key, store);
+		}
+		return store;
+	}
+	
+	/**
+	 * @param source data file.
+	 * @return <code>true</code> if this cache was created from the current 
+	 * contents of the data file.
+	 * @throws IOException
+	 */
+	public synchronized boolean isFresh( File source )
+	throws IOException
+	{
+		// Avoid computing the checksum again if the source did not change
+		final long sourceModified = source.lastModified();
+		if ( sourceModified == verifiedSourceModified && source.length() == sourceLength )
+		{
+			return true;
+		}
+		final boolean fresh = source.length() == sourceLength && checksum(source) == sourceChecksum;
+		verifiedSourceModified = fresh ? sourceModified : -1L;
+		return fresh;
+	}
+	
+	/**
+	 * @param sheetName sheet name.
+	 * @param tableName table name.
+	 * @return the table, or <code>null</code> if it is not in the cache.
+	 */
+	public String[][] readTable( String sheetName, String tableName )
+	{
+		final Long offset = offsets.get(key(sheetName, tableName));
+		if ( offset == null )
+		{
+			return null;
+		}
+		// Each reader gets its own position
+		final ByteBuffer table = buffer.duplicate();
+		table.position(offset.intValue());
+		final int rows = table.getInt();
+		final int columns = table.getInt();
+		final String[] dictionary = new String[table.getInt()];
+		for ( int i = 0 ; i < dictionary.length ; ++i )
+		{
+			dictionary[i] = readString(table);
+		}
+		final String[][] cells = new String[rows][columns];
+		for ( int i = 0 ; i < rows ; ++i )
+		{
+			for ( int j = 0 ; j < columns ; ++j )
+			{
+				cells[i][j] = dictionary[table.getInt()];
+			}
+		}
+		return cells;
+	}
+	
+	/**
+	 * Writes a cache file.
+	 * 
+	 * @param cacheFile cache file to be created.
+	 * @param source data file the tables were read from.
+	 * @param tables tables, keyed by {sheet name, table name} pairs.
+	 * @throws IOException
+	 */
+	public static void write( File cacheFile, File source, Map<String[], String[][]> tables )
+	throws IOException
+	{
+		final Map<String[], byte[]> bodies = new LinkedHashMap<String[], byte[]>();
+		int indexLength = 0;
+		for ( Map.Entry<String[], String[][]> entry : tables.entrySet() )
+		{
+			bodies.put(entry.getKey(), encodeTable(entry.getValue()));
+			indexLength += 4 + utf8(entry.getKey()[0]).length + 4 + utf8(entry.getKey()[1]).length + 8;
+		}
+		
+		final File parent = cacheFile.getAbsoluteFile().getParentFile();
+		if ( ! parent.isDirectory() && ! parent.mkdirs() )
+		{
+			throw new IOException("Failed to create directory " + parent);
+		}
+		final DataOutputStream out = new DataOutputStream(new FileOutputStream(cacheFile));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source.length());
+			out.writeLong(checksum(source));
+			out.writeInt(bodies.size());
+			long offset = 4 + 4 + 8 + 8 + 4 + indexLength;
+			for ( Map.Entry<String[], byte[]> entry : bodies.entrySet() )
+			{
+				writeString(out, entry.getKey()[0]);
+				writeString(out, entry.getKey()[1]);
+				out.writeLong(offset);
+				offset += entry.getValue().length;
+			}
+			for ( byte[] body : bodies.values() )
+			{
+				out.write(body);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	private static byte[] encodeTable( String[][] cells )
+	throws IOException
+	{
+		final Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+		final int columns = cells.length > 0 ? cells[0].length : 0;
+		final int[] codes = new int[cells.length * columns];
+		int k = 0;
+		for ( String[] row : cells )
+		{
+			for ( int j = 0 ; j < columns ; ++j )
+			{
+				final String value = j < row.length && row[j] != null ? row[j] : "";
+				Integer code = dictionary.get(value);
+				if ( code == null )
+				{
+					code = Integer.valueOf(dictionary.size());
+					dictionary.put(value, code);
+				}
+				codes[k++] = code.intValue();
+			}
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(cells.length);
+		out.writeInt(columns);
+		out.writeInt(dictionary.size());
+		for ( String value : dictionary.keySet() )
+		{
+			writeString(out, value);
+		}
+		for ( int code : codes )
+		{
+			out.writeInt(code);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * @return key of a table in the cache index.
+	 */
+	private static String key( String sheetName, String tableName )
+	{
+		return sheetName + "!" + tableName;
+	}
+	
+	/**
+	 * @param file a file.
+	 * @return the CRC32 of the file contents.
+	 * @throws IOException
+	 */
+	static long checksum( File file )
+	throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		final InputStream input = new FileInputStream(file);
+		try
+		{
+			final byte[] chunk = new byte[64 * 1024];
+			int read;
+			while ( (read = input.read(chunk)) != -1 )
+			{
+				crc.update(chunk, 0, read);
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		return crc.getValue();
+	}
+	
+	private static void writeString( DataOutputStream out, String value )
+	throws IOException
+	{
+		final byte[] bytes = utf8(value);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString( ByteBuffer buffer )
+	{
+		final byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		try
+		{
+			return new String(bytes, "UTF-8");
+		}
+		catch ( UnsupportedEncodingException uee )
+		{
+			throw new SeleniumWebTestException(uee);
+		}
+	}
+	
+	private static byte[] utf8( String value )
+	{
+		try
+		{
+			return (value == null ? "" : value).getBytes("UTF-8");
+		}
+		catch ( UnsupportedEncodingException uee )
+		{
+			throw new SeleniumWebTestException(uee);
+		}
+	}
+	
+}
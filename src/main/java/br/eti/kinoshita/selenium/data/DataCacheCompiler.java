@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.CompositeConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.configuration.SystemConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Compiles the tables of the data file (selenium.xls) into a 
+ * {@link CompiledTableStore}. It is meant to run during the build, see the 
+ * data-cache profile in pom.xml, so that data-driven tests read the 
+ * compiled tables instead of parsing the data file.</p>
+ * 
+ * <p>The tables are listed in selenium.data.cache.tables, as comma separated 
+ * sheet!table pairs, and the cache is written to selenium.data.cache.dir 
+ * (target/data-cache by default). The output directory can also be given 
+ * as the first argument.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class DataCacheCompiler
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( DataCacheCompiler.class );
+	
+	/**
+	 * Default directory of the compiled data cache.
+	 */
+	public static final String DEFAULT_CACHE_DIRECTORY = "target/data-cache";
+	
+	private final Configuration configuration;
+	
+	public DataCacheCompiler( Configuration configuration )
+	{
+		this.configuration = configuration;
+	}
+	
+	/**
+	 * Compiles the tables into the cache directory.
+	 * 
+	 * @param cacheDirectory output directory.
+	 * @return the cache file created.
+	 * @throws IOException
+	 * @throws SeleniumWebTestException
+	 */
+	public File compile( File cacheDirectory )
+	throws IOException, SeleniumWebTestException
+	{
+		final File source = findDataFile(configuration.getString("selenium.xls"));
+		final TableDataSource dataSource = TableDataSources.forFile(source, 
+				configuration.getString("selenium.data.format", null));
+		final Map<String[], String[][]> tables = new LinkedHashMap<String[], String[][]>();
+		for ( String table : configuration.getStringArray("selenium.data.cache.tables") )
+		{
+			if ( StringUtils.isBlank(table) )
+			{
+				continue;
+			}
+			final String sheetName = StringUtils.substringBefore(table.trim(), "!");
+			final String tableName = StringUtils.substringAfter(table.trim(), "!");
+			if ( StringUtils.isBlank(tableName) )
+			{
+				throw new SeleniumWebTestException("Invalid table " + table + ", expected sheet!table");
+			}
+			LOGGER.info("Compiling table " + tableName + " of sheet " + sheetName);
+			tables.put(new String[] { sheetName, tableName }, dataSource.readTable(source, sheetName, tableName));
+		}
+		final File cacheFile = CompiledTableStore.getCacheFile(cacheDirectory, source);
+		CompiledTableStore.write(cacheFile, source, tables);
+		LOGGER.info("Compiled " + tables.size() + " table(s) from " + source + " into " + cacheFile);
+		return cacheFile;
+	}
+	
+	/*
+	 * Looks up the data file in the file system, and then in the classpath. 
+	 * Uses the context class loader, as build plug-ins like exec:java do not 
+	 * put the project classpath in the system class loader.
+	 */
+	private File findDataFile( String name )
+	throws SeleniumWebTestException
+	{
+		final File file = new File(name);
+		if ( file.isFile() )
+		{
+			return file;
+		}
+		final URL url = Thread.currentThread().getContextClassLoader().getResource(name);
+		if ( url == null )
+		{
+			throw new SeleniumWebTestException("Could not find data file " + name);
+		}
+		return FileUtils.toFile(url);
+	}
+	
+	/**
+	 * @param args optional output directory.
+	 * @throws Exception
+	 */
+	public static void main( String[] args )
+	throws Exception
+	{
+		final CompositeConfiguration configuration = new CompositeConfiguration();
+		configuration.addConfiguration(new SystemConfiguration());
+		try
+		{
+			configuration.addConfiguration(new PropertiesConfiguration("selenium.properties"));
+		}
+		catch ( ConfigurationException ce )
+		{
+			LOGGER.error("Failed to load selenium.properties: " + ce.getMessage(), ce);
+		}
+		final String directory = args.length > 0 ? args[0] : 
+			configuration.getString("selenium.data.cache.dir", DEFAULT_CACHE_DIRECTORY);
+		new DataCacheCompiler(configuration).compile(new File(directory));
+	}
+	
+}
@@ -0,0 +1,498 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A typed column of a {@link DataTable}. Values are stored in primitive 
+ * arrays, and text values are dictionary encoded, i.e. each distinct value 
+ * is stored once and rows keep only an index to it.</p>
+ * 
+ * <p>The type of a column is inferred from its values, see 
+ * {@link #create(String, String[])}. Empty cells are missing values 
+ * (<code>null</code>) in non text columns. Non text columns also keep the 
+ * original text of their cells, dictionary encoded, as parsing may not 
+ * preserve it (e.g. 1.50 and 1e3 in DOUBLE columns), see 
+ * {@link #getText(int)}.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public abstract class DataColumn
+{
+
+	/**
+	 * Column types.
+	 */
+	public enum Type 
+	{
+		LONG, DOUBLE, BOOLEAN, DATE, STRING
+	}
+	
+	private static final Pattern LONG_PATTERN = Pattern.compile("-?(0|[1-9][0-9]{0,17})");
+	private static final Pattern DOUBLE_PATTERN = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+	private static final Pattern DATE_PATTERN = Pattern.compile("[0-9]{4}-[0-9]{2}-[0-9]{2}");
+	
+	/**
+	 * Format of the dates recognized in DATE columns. Dates are parsed in 
+	 * UTC.
+	 */
+	public static final String DATE_FORMAT = "yyyy-MM-dd";
+	
+	private final String name;
+	protected final BitSet missing;
+	private final StringColumn text;
+	
+	protected DataColumn( String name, BitSet missing )
+	{
+		this(name, missing, null);
+	}
+	
+	/*
+	 * Typed columns keep the original text of their cells.
+	 */
+	private DataColumn( String name, BitSet missing, String[] values )
+	{
+		this.name = name;
+		this.missing = missing;
+		this.text = values == null ? null : new StringColumn(name, values);
+	}
+	
+	/**
+	 * @return the column name.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * @return the column type.
+	 */
+	public abstract Type getType();
+	
+	/**
+	 * @return number of rows.
+	 */
+	public abstract int size();
+	
+	/**
+	 * @param row row index.
+	 * @return the value, boxed, or <code>null</code> if the cell is empty.
+	 */
+	public abstract Object getValue( int row );
+	
+	/**
+	 * @param row row index.
+	 * @return the original text of the cell, or <code>null</code> if the 
+	 * cell is empty in a non text column.
+	 */
+	public String getText( int row )
+	{
+		return missing.get(row) ? null : text.getText(row);
+	}
+	
+	/**
+	 * @return rough estimate of the memory used by the original text of a 
+	 * non text column, in bytes.
+	 */
+	protected long estimateTextBytes()
+	{
+		return text == null ? 0L : text.estimateBytes();
+	}
+	
+	/**
+	 * @param row row index.
+	 * @return <code>true</code> if the cell is empty.
+	 */
+	public boolean isMissing( int row )
+	{
+		return missing.get(row);
+	}
+	
+	/**
+	 * @return rough estimate of the memory used by the column, in bytes.
+	 */
+	public abstract long estimateBytes();
+	
+	/**
+	 * Creates a column with the narrowest type that fits all non empty 
+	 * values: LONG for integers (without leading zeroes, so codes like 007 
+	 * stay text), DOUBLE for decimals, BOOLEAN for true or false, DATE for 
+	 * yyyy-MM-dd, and STRING for anything else.
+	 * 
+	 * @param name column name.
+	 * @param values column values, one per row.
+	 * @return the typed column.
+	 */
+	public static DataColumn create( String name, String[] values )
+	{
+		boolean isLong = true, isDouble = true, isBoolean = true, isDate = true;
+		boolean empty = true;
+		for ( String value : values )
+		{
+			if ( value == null || value.length() == 0 )
+			{
+				continue;
+			}
+			empty = false;
+			isLong = isLong && LONG_PATTERN.matcher(value).matches();
+			isDouble = isDouble && DOUBLE_PATTERN.matcher(value).matches();
+			isBoolean = isBoolean && ( "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value) );
+			isDate = isDate && DATE_PATTERN.matcher(value).matches();
+			if ( ! (isLong || isDouble || isBoolean || isDate) )
+			{
+				break;
+			}
+		}
+		if ( empty )
+		{
+			return new StringColumn(name, values);
+		}
+		if ( isLong )
+		{
+			return new LongColumn(name, values);
+		}
+		if ( isDouble )
+		{
+			return new DoubleColumn(name, values);
+		}
+		if ( isBoolean )
+		{
+			return new BooleanColumn(name, values);
+		}
+		if ( isDate )
+		{
+			final DateColumn column = DateColumn.parse(name, values);
+			if ( column != null )
+			{
+				return column;
+			}
+		}
+		return new StringColumn(name, values);
+	}
+	
+	private static BitSet findMissing( String[] values )
+	{
+		final BitSet missing = new BitSet(values.length);
+		for ( int i = 0 ; i < values.length ; ++i )
+		{
+			if ( values[i] == null || values[i].length() == 0 )
+			{
+				missing.set(i);
+			}
+		}
+		return missing;
+	}
+	
+	/**
+	 * A column of integers.
+	 */
+	public static final class LongColumn 
+	extends DataColumn
+	{
+		private final long[] values;
+		
+		private LongColumn( String name, String[] values )
+		{
+			super(name, findMissing(values), values);
+			this.values = new long[values.length];
+			for ( int i = 0 ; i < values.length ; ++i )
+			{
+				if ( ! missing.get(i) )
+				{
+					this.values[i] = Long.parseLong(values[i]);
+				}
+			}
+		}
+		
+		public Type getType()
+		{
+			return Type.LONG;
+		}
+		
+		public int size()
+		{
+			return values.length;
+		}
+		
+		public long getLong( int row )
+		{
+			return values[row];
+		}
+		
+		public Object getValue( int row )
+		{
+			return missing.get(row) ? null : Long.valueOf(values[row]);
+		}
+		
+		public long estimateBytes()
+		{
+			return 32L + 8L * values.length + estimateTextBytes();
+		}
+	}
+	
+	/**
+	 * A column of decimal numbers.
+	 */
+	public static final class DoubleColumn 
+	extends DataColumn
+	{
+		private final double[] values;
+		
+		private DoubleColumn( String name, String[] values )
+		{
+			super(name, findMissing(values), values);
+			this.values = new double[values.length];
+			for ( int i = 0 ; i < values.length ; ++i )
+			{
+				if ( ! missing.get(i) )
+				{
+					this.values[i] = Double.parseDouble(values[i]);
+				}
+			}
+		}
+		
+		public Type getType()
+		{
+			return Type.DOUBLE;
+		}
+		
+		public int size()
+		{
+			return values.length;
+		}
+		
+		public double getDouble( int row )
+		{
+			return values[row];
+		}
+		
+		public Object getValue( int row )
+		{
+			return missing.get(row) ? null : Double.valueOf(values[row]);
+		}
+		
+		public long estimateBytes()
+		{
+			return 32L + 8L * values.length + estimateTextBytes();
+		}
+	}
+	
+	/**
+	 * A column of booleans.
+	 */
+	public static final class BooleanColumn 
+	extends DataColumn
+	{
+		private final BitSet values;
+		private final int size;
+		
+		private BooleanColumn( String name, String[] values )
+		{
+			super(name, findMissing(values), values);
+			this.size = values.length;
+			this.values = new BitSet(values.length);
+			for ( int i = 0 ; i < values.length ; ++i )
+			{
+				if ( ! missing.get(i) && "true".equalsIgnoreCase(values[i]) )
+				{
+					this.values.set(i);
+				}
+			}
+		}
+		
+		public Type getType()
+		{
+			return Type.BOOLEAN;
+		}
+		
+		public int size()
+		{
+			return size;
+		}
+		
+		public boolean getBoolean( int row )
+		{
+			return values.get(row);
+		}
+		
+		public Object getValue( int row )
+		{
+			return missing.get(row) ? null : Boolean.valueOf(values.get(row));
+		}
+		
+		public long estimateBytes()
+		{
+			return 48L + size / 4 + estimateTextBytes();
+		}
+	}
+	
+	/**
+	 * A column of dates, stored as milliseconds since the epoch.
+	 */
+	public static final class DateColumn 
+	extends DataColumn
+	{
+		private final long[] values;
+		
+		private DateColumn( String name, BitSet missing, String[] text, long[] values )
+		{
+			super(name, missing, text);
+			this.values = values;
+		}
+		
+		/*
+		 * Returns null if any value is not a valid date, like 2012-02-31.
+		 */
+		private static DateColumn parse( String name, String[] values )
+		{
+			final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+			format.setLenient(false);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			final BitSet missing = findMissing(values);
+			final long[] millis = new long[values.length];
+			try
+			{
+				for ( int i = 0 ; i < values.length ; ++i )
+				{
+					if ( ! missing.get(i) )
+					{
+						millis[i] = format.parse(values[i]).getTime();
+					}
+				}
+			}
+			catch ( ParseException pe )
+			{
+				return null;
+			}
+			return new DateColumn(name, missing, values, millis);
+		}
+		
+		public Type getType()
+		{
+			return Type.DATE;
+		}
+		
+		public int size()
+		{
+			return values.length;
+		}
+		
+		public long getTime( int row )
+		{
+			return values[row];
+		}
+		
+		public Object getValue( int row )
+		{
+			return missing.get(row) ? null : new Date(values[row]);
+		}
+		
+		public long estimateBytes()
+		{
+			return 32L + 8L * values.length + estimateTextBytes();
+		}
+	}
+	
+	/**
+	 * A dictionary encoded column of text.
+	 */
+	public static final class StringColumn 
+	extends DataColumn
+	{
+		private final String[] dictionary;
+		private final int[] codes;
+		
+		private StringColumn( String name, String[] values )
+		{
+			super(name, new BitSet());
+			final Map<String, Integer> index = new HashMap<String, Integer>();
+			this.codes = new int[values.length];
+			for ( int i = 0 ; i < values.length ; ++i )
+			{
+				final String value = values[i] == null ? "" : values[i];
+				Integer code = index.get(value);
+				if ( code == null )
+				{
+					code = Integer.valueOf(index.size());
+					index.put(value, code);
+				}
+				codes[i] = code.intValue();
+			}
+			this.dictionary = new String[index.size()];
+			for ( Map.Entry<String, Integer> entry : index.entrySet() )
+			{
+				dictionary[entry.getValue().intValue()] = entry.getKey();
+			}
+		}
+		
+		public Type getType()
+		{
+			return Type.STRING;
+		}
+		
+		public int size()
+		{
+			return codes.length;
+		}
+		
+		public Object getValue( int row )
+		{
+			return dictionary[codes[row]];
+		}
+		
+		public String getText( int row )
+		{
+			return dictionary[codes[row]];
+		}
+		
+		/**
+		 * @return number of distinct values.
+		 */
+		public int getCardinality()
+		{
+			return dictionary.length;
+		}
+		
+		public long estimateBytes()
+		{
+			long bytes = 32L + 4L * codes.length + 16L + 4L * dictionary.length;
+			for ( String value : dictionary )
+			{
+				bytes += 40L + 2L * value.length();
+			}
+			return bytes;
+		}
+	}
+	
+}
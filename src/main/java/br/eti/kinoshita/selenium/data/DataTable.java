@@ -0,0 +1,314 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>A typed, columnar test data table. The text cells read from the data 
+ * file are converted once, when the table is created, into typed columns 
+ * (see {@link DataColumn}). Tests then receive numbers, booleans and dates 
+ * instead of parsing them from strings in every row.</p>
+ * 
+ * <p>Optionally the first row is a header with the column names. Rows can 
+ * then be bound to beans, matching column names to field names.</p>
+ * 
+ * <p>Instances are immutable and may be shared between threads.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class DataTable
+{
+
+	private final String[] names;
+	private final DataColumn[] columns;
+	private final int rowCount;
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+	
+	private DataTable( String[] names, DataColumn[] columns, int rowCount )
+	{
+		this.names = names;
+		this.columns = columns;
+		this.rowCount = rowCount;
+		for ( int i = 0 ; i < names.length ; ++i )
+		{
+			index.put(names[i], Integer.valueOf(i));
+		}
+	}
+	
+	/**
+	 * Creates a table from text cells.
+	 * 
+	 * @param cells table cells, row by row.
+	 * @param header whether the first row contains the column names. If not, 
+	 * columns are named column0, column1, etc.
+	 * @return the typed table.
+	 */
+	public static DataTable create( String[][] cells, boolean header )
+	{
+		final int first = header ? 1 : 0;
+		final int columnCount = cells.length > 0 ? cells[0].length : 0;
+		final int rowCount = Math.max(cells.length - first, 0);
+		final String[] names = new String[columnCount];
+		final DataColumn[] columns = new DataColumn[columnCount];
+		final String[] values = new String[rowCount];
+		for ( int j = 0 ; j < columnCount ; ++j )
+		{
+			names[j] = header ? cells[0][j] : "column" + j;
+			for ( int i = 0 ; i < rowCount ; ++i )
+			{
+				values[i] = cells[i + first][j];
+			}
+			columns[j] = DataColumn.create(names[j], values);
+		}
+		return new DataTable(names, columns, rowCount);
+	}
+	
+	public int getRowCount()
+	{
+		return rowCount;
+	}
+	
+	public int getColumnCount()
+	{
+		return columns.length;
+	}
+	
+	public String[] getColumnNames()
+	{
+		return names.clone();
+	}
+	
+	public DataColumn getColumn( int column )
+	{
+		return columns[column];
+	}
+	
+	/**
+	 * @param name column name.
+	 * @return the column, or <code>null</code> if there is no such column.
+	 */
+	public DataColumn getColumn( String name )
+	{
+		final Integer column = index.get(name);
+		return column == null ? null : columns[column.intValue()];
+	}
+	
+	/**
+	 * @param row row index.
+	 * @param column column index.
+	 * @return the typed value, or <code>null</code> for empty cells.
+	 */
+	public Object getValue( int row, int column )
+	{
+		return columns[column].getValue(row);
+	}
+	
+	/**
+	 * @return the typed values, row by row, as expected by TestNG data 
+	 * providers.
+	 */
+	public Object[][] toRows()
+	{
+		final Object[][] rows = new Object[rowCount][columns.length];
+		for ( int j = 0 ; j < columns.length ; ++j )
+		{
+			for ( int i = 0 ; i < rowCount ; ++i )
+			{
+				rows[i][j] = columns[j].getValue(i);
+			}
+		}
+		return rows;
+	}
+	
+	/**
+	 * Binds each row to a new instance of a bean. Each column is set in the 
+	 * field with the same name, ignoring case, spaces, dashes and 
+	 * underscores. Columns without a field are ignored. Numbers are 
+	 * converted to the numeric type of the field. String and enum fields 
+	 * get the original text of the cell, e.g. 1.50 rather than 1.5.
+	 * 
+	 * @param type bean class, with a no-args constructor.
+	 * @return one bean per row.
+	 * @throws SeleniumWebTestException if a bean cannot be created or set.
+	 */
+	public <T> List<T> bind( Class<T> type )
+	throws SeleniumWebTestException
+	{
+		final Field[] fields = new Field[columns.length];
+		final Map<String, Field> fieldsByName = new HashMap<String, Field>();
+		for ( Class<?> c = type ; c != null && c != Object.class ; c = c.getSuperclass() )
+		{
+			for ( Field field : c.getDeclaredFields() )
+			{
+				final int modifiers = field.getModifiers();
+				final String key = normalize(field.getName());
+				if ( ! Modifier.isStatic(modifiers) && ! Modifier.isFinal(modifiers) && ! fieldsByName.containsKey(key) )
+				{
+					field.setAccessible(true);
+					fieldsByName.put(key, field);
+				}
+			}
+		}
+		for ( int j = 0 ; j < columns.length ; ++j )
+		{
+			fields[j] = fieldsByName.get(normalize(names[j]));
+		}
+		
+		final List<T> beans = new ArrayList<T>(rowCount);
+		try
+		{
+			for ( int i = 0 ; i < rowCount ; ++i )
+			{
+				final T bean = type.newInstance();
+				for ( int j = 0 ; j < columns.length ; ++j )
+				{
+					if ( fields[j] != null )
+					{
+						final Object value = convert(columns[j], i, fields[j].getType());
+						if ( value != null )
+						{
+							fields[j].set(bean, value);
+						}
+					}
+				}
+				beans.add(bean);
+			}
+		}
+		catch ( InstantiationException ie )
+		{
+			throw new SeleniumWebTestException("Failed to create data bean " + type.getName(), ie);
+		}
+		catch ( IllegalAccessException iae )
+		{
+			throw new SeleniumWebTestException("Failed to set data bean " + type.getName(), iae);
+		}
+		catch ( IllegalArgumentException iae )
+		{
+			throw new SeleniumWebTestException("Failed to set data bean " + type.getName(), iae);
+		}
+		return beans;
+	}
+	
+	/**
+	 * @return rough estimate of the memory used by the table, in bytes.
+	 */
+	public long estimateBytes()
+	{
+		long bytes = 64L;
+		for ( int j = 0 ; j < columns.length ; ++j )
+		{
+			bytes += columns[j].estimateBytes() + 40L + 2L * names[j].length();
+		}
+		return bytes;
+	}
+	
+	private static String normalize( String name )
+	{
+		final StringBuilder normalized = new StringBuilder(name.length());
+		for ( int i = 0 ; i < name.length() ; ++i )
+		{
+			final char c = name.charAt(i);
+			if ( Character.isLetterOrDigit(c) )
+			{
+				normalized.append(Character.toLowerCase(c));
+			}
+		}
+		return normalized.toString();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Object convert( DataColumn column, int row, Class<?> type )
+	{
+		if ( column.isMissing(row) )
+		{
+			return null;
+		}
+		if ( type == String.class )
+		{
+			return column.getText(row);
+		}
+		if ( type.isEnum() )
+		{
+			return Enum.valueOf((Class<? extends Enum>) type, column.getText(row));
+		}
+		final Object value = column.getValue(row);
+		if ( type.isInstance(value) )
+		{
+			return value;
+		}
+		if ( value instanceof Number )
+		{
+			final Number number = (Number) value;
+			if ( type == Integer.class || type == int.class )
+			{
+				return Integer.valueOf(number.intValue());
+			}
+			if ( type == Long.class || type == long.class )
+			{
+				return Long.valueOf(number.longValue());
+			}
+			if ( type == Double.class || type == double.class )
+			{
+				return Double.valueOf(number.doubleValue());
+			}
+			if ( type == Float.class || type == float.class )
+			{
+				return Float.valueOf(number.floatValue());
+			}
+			if ( type == Short.class || type == short.class )
+			{
+				return Short.valueOf(number.shortValue());
+			}
+			if ( type == Byte.class || type == byte.class )
+			{
+				return Byte.valueOf(number.byteValue());
+			}
+			if ( type == BigDecimal.class )
+			{
+				return new BigDecimal(number.toString());
+			}
+		}
+		if ( value instanceof Boolean && type == boolean.class )
+		{
+			return value;
+		}
+		if ( value instanceof Date && type == long.class )
+		{
+			return Long.valueOf(((Date) value).getTime());
+		}
+		throw new IllegalArgumentException("Cannot convert " + value + " to " + type.getName());
+	}
+	
+}
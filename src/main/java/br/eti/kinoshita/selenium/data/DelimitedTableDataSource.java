@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Reads tables from UTF-8 delimited text files, like CSV and TSV. The 
+ * file is memory-mapped, so it is not copied to the heap and the operating 
+ * system takes care of paging it in. Only the current row is decoded.</p>
+ * 
+ * <p>Fields may be quoted with double quotes, in which case they can 
+ * contain delimiters, line breaks and escaped ("") quotes. The sheet name 
+ * is ignored, as a delimited file has a single sheet.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class DelimitedTableDataSource 
+extends RowStreamTableDataSource
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( DelimitedTableDataSource.class );
+	
+	private final byte delimiter;
+	
+	/**
+	 * @param delimiter field delimiter, e.g. ',' or '\t'.
+	 */
+	public DelimitedTableDataSource( char delimiter )
+	{
+		if ( delimiter > 127 )
+		{
+			throw new IllegalArgumentException("Delimiter must be an ASCII character");
+		}
+		this.delimiter = (byte) delimiter;
+	}
+	
+	/* (non-Javadoc)
+	 * @see br.eti.kinoshita.selenium.data.RowStreamTableDataSource#openRows(java.io.File, java.lang.String)
+	 */
+	protected RowReader openRows( File file, String sheetName )
+	throws SeleniumWebTestException
+	{
+		RandomAccessFile raf = null;
+		try
+		{
+			raf = new RandomAccessFile(file, "r");
+			final FileChannel channel = raf.getChannel();
+			final long size = channel.size();
+			if ( size > Integer.MAX_VALUE )
+			{
+				throw new SeleniumWebTestException("Data file " + file + " is larger than 2GB");
+			}
+			// The mapping stays valid after the channel is closed
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return new DelimitedRowReader(buffer, delimiter);
+		}
+		catch ( IOException ioe )
+		{
+			LOGGER.error("IO Exception mapping data file: " + ioe.getMessage(), ioe);
+			throw new SeleniumWebTestException(ioe);
+		}
+		finally
+		{
+			if ( raf != null )
+			{
+				try
+				{
+					raf.close();
+				}
+				catch ( IOException ioe )
+				{
+					LOGGER.debug(ioe.getMessage(), ioe);
+				}
+			}
+		}
+	}
+	
+	private static final class DelimitedRowReader 
+	implements RowReader
+	{
+		private final ByteBuffer buffer;
+		private final byte delimiter;
+		private final List<String> cells = new ArrayList<String>();
+		private byte[] field = new byte[256];
+		private int fieldLength = 0;
+		
+		private DelimitedRowReader( ByteBuffer buffer, byte delimiter )
+		{
+			this.buffer = buffer;
+			this.delimiter = delimiter;
+			// Skip the UTF-8 byte order mark
+			if ( buffer.remaining() >= 3 && buffer.get(0) == (byte) 0xEF && 
+					buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF )
+			{
+				buffer.position(3);
+			}
+		}
+
+		public String[] nextRow()
+		throws SeleniumWebTestException
+		{
+			if ( ! buffer.hasRemaining() )
+			{
+				return null;
+			}
+			cells.clear();
+			fieldLength = 0;
+			boolean quoted = false;
+			boolean inQuotes = false;
+			while ( buffer.hasRemaining() )
+			{
+				final byte b = buffer.get();
+				if ( inQuotes )
+				{
+					if ( b == '"' )
+					{
+						if ( buffer.hasRemaining() && buffer.get(buffer.position()) == '"' )
+						{
+							buffer.get();
+							append(b);
+						}
+						else
+						{
+							inQuotes = false;
+						}
+					}
+					else
+					{
+						append(b);
+					}
+				}
+				else if ( b == '"' && fieldLength == 0 && ! quoted )
+				{
+					inQuotes = true;
+					quoted = true;
+				}
+				else if ( b == delimiter )
+				{
+					endField();
+					quoted = false;
+				}
+				else if ( b == '\n' )
+				{
+					break;
+				}
+				else if ( b == '\r' )
+				{
+					if ( buffer.hasRemaining() && buffer.get(buffer.position()) == '\n' )
+					{
+						buffer.get();
+					}
+					break;
+				}
+				else
+				{
+					append(b);
+				}
+			}
+			endField();
+			return cells.toArray(new String[cells.size()]);
+		}
+		
+		private void append( byte b )
+		{
+			if ( fieldLength == field.length )
+			{
+				final byte[] larger = new byte[field.length * 2];
+				System.arraycopy(field, 0, larger, 0, fieldLength);
+				field = larger;
+			}
+			field[fieldLength++] = b;
+		}
+		
+		private void endField()
+		{
+			try
+			{
+				cells.add(new String(field, 0, fieldLength, "UTF-8"));
+			}
+			catch ( UnsupportedEncodingException uee )
+			{
+				// UTF-8 is always supported
+				throw new SeleniumWebTestException(uee);
+			}
+			fieldLength = 0;
+		}
+
+		public void close()
+		{
+			// Nothing to release, the mapping goes away with the buffer
+		}
+	}
+	
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import jxl.Sheet;
+import jxl.Workbook;
+import jxl.read.biff.BiffException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Reads tables from legacy Excel (.xls) files, using JExcelAPI.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @author Cesar Fernandes de Almeida
+ * @since 0.2
+ */
+public class JxlTableDataSource 
+implements TableDataSource
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( JxlTableDataSource.class );
+	
+	/**
+	 * Parses a table from a XLS File. The workbook is closed as soon as the 
+	 * table is read.
+	 *
+	 * @param xlsFile Excel file
+	 * @param sheetName Excel sheet name
+	 * @param tableName Excel table name
+	 * 
+	 * @throws SeleniumWebTestException
+	 */
+	public String[][] readTable( File xlsFile, String sheetName, String tableName )
+	throws SeleniumWebTestException
+	{
+		String[][] tableArray = null;
+	    
+	    LOGGER.debug("Opening excel file " + xlsFile);
+	    
+		Workbook workbook = null;
+		try
+		{
+			workbook = Workbook.getWorkbook( xlsFile );
+			
+			Sheet sheet = getSheet(workbook, sheetName);
+		    
+		    int startRow, startCol, endRow, endCol, ci, cj;
+		    
+		    TableBounds bounds = findTableBounds(xlsFile, sheet, sheetName, tableName);
+		    startRow = bounds.getStartRow();
+		    startCol = bounds.getStartColumn();
+		    endRow = bounds.getEndRow();
+		    endCol = bounds.getEndColumn();
+		    
+		    tableArray = new String[endRow-startRow-1][endCol-startCol-1];
+		    ci=0;
+
+		    for (int i=startRow+1;i<endRow;i++,ci++)
+		    {
+		    	cj=0;
+		        for (int j=startCol+1;j<endCol;j++,cj++)
+		        {
+		        	tableArray[ci][cj]=sheet.getCell(j,i).getContents();
+		        }
+		    }
+		    
+		    // TBD: verify if it's really ok to throw this exception here
+		    if ( tableArray.length <= 0 )
+		    {
+		    	throw new SeleniumWebTestException("Empty excel data.");
+		    }
+		    
+			return tableArray;
+		} 
+		catch ( IOException ioe )
+		{
+			LOGGER.error("IO Exception retrieving table array from Excel: " + ioe.getMessage(), ioe);
+			throw new SeleniumWebTestException(ioe);
+		}
+		catch ( BiffException be )
+		{
+			LOGGER.error("Internal error retrieving table array from Excel: " + be.getMessage(), be);
+			throw new SeleniumWebTestException(be);
+		}
+		finally
+		{
+			if ( workbook != null )
+			{
+				workbook.close();
+			}
+		}
+	}
+	
+	/**
+	 * Returns an iterator over the rows of a table. The workbook is closed 
+	 * once the last row is read.
+	 * 
+	 * @param xlsFile Excel file
+	 * @param sheetName Excel sheet name
+	 * @param tableName Excel table name
+	 * @return thread-safe iterator over the table rows.
+	 * @throws SeleniumWebTestException
+	 */
+	public Iterator<Object[]> iterateTable( File xlsFile, String sheetName, String tableName )
+	throws SeleniumWebTestException
+	{
+		LOGGER.debug("Opening excel file " + xlsFile);
+		Workbook workbook = null;
+		try
+		{
+			workbook = Workbook.getWorkbook( xlsFile );
+			final Sheet sheet = getSheet(workbook, sheetName);
+			final TableBounds bounds = findTableBounds(xlsFile, sheet, sheetName, tableName);
+			final Iterator<Object[]> iterator = new SheetTableIterator(workbook, sheet, bounds);
+			workbook = null;
+			return iterator;
+		}
+		catch ( IOException ioe )
+		{
+			LOGGER.error("IO Exception retrieving table rows from Excel: " + ioe.getMessage(), ioe);
+			throw new SeleniumWebTestException(ioe);
+		}
+		catch ( BiffException be )
+		{
+			LOGGER.error("Internal error retrieving table rows from Excel: " + be.getMessage(), be);
+			throw new SeleniumWebTestException(be);
+		}
+		finally
+		{
+			// Only when we failed before handing the workbook to the iterator
+			if ( workbook != null )
+			{
+				workbook.close();
+			}
+		}
+	}
+	
+	private Sheet getSheet( Workbook workbook, String sheetName )
+	throws SeleniumWebTestException
+	{
+		Sheet sheet = workbook.getSheet(sheetName); 
+		if ( sheet == null )
+		{
+			throw new SeleniumWebTestException("Could not find sheet " + sheetName);
+		}
+		return sheet;
+	}
+	
+	/**
+	 * Finds the start and end markers of a table in a sheet. The markers of 
+	 * all tables in the sheet are indexed in a single pass the first time 
+	 * the sheet is read, see {@link TableMarkerIndex}.
+	 * 
+	 * @param xlsFile Excel file
+	 * @param sheet Excel sheet
+	 * @param sheetName Excel sheet name
+	 * @param tableName Excel table name
+	 * @return the table position.
+	 * @throws SeleniumWebTestException if the markers could not be found.
+	 */
+	protected TableBounds findTableBounds( File xlsFile, Sheet sheet, String sheetName, String tableName )
+	throws SeleniumWebTestException
+	{
+		TableBounds bounds = TableMarkerIndex.forSheet(xlsFile, sheetName, sheet).getTable(tableName);
+		if ( bounds == null )
+		{
+			throw new SeleniumWebTestException("Could not find the start and end markers of table " + tableName + " in sheet " + sheetName);
+		}
+		LOGGER.debug(bounds.toString());
+		return bounds;
+	}
+	
+}
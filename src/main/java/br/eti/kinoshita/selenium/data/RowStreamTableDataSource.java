@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Base class for data sources that read a file row by row, without 
+ * random access to the cells, like CSV files or the sheets of an XLSX 
+ * file. Subclasses only need to provide a {@link RowReader}.</p>
+ * 
+ * <p>{@link #readTable(File, String, String)} reads the file once, up to 
+ * the end marker of the table. {@link #iterateTable(File, String, String)} 
+ * reads it once to find the table bounds, and then again, handing out 
+ * rows as they are read. Only the current row is held in memory.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public abstract class RowStreamTableDataSource 
+implements TableDataSource
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( RowStreamTableDataSource.class );
+	
+	/**
+	 * Reads the rows of a sheet, in order.
+	 */
+	public interface RowReader
+	{
+		/**
+		 * @return the cells of the next row, or <code>null</code> after the 
+		 * last row. Empty rows must be returned too, as empty arrays, so 
+		 * that rows can be counted.
+		 * @throws SeleniumWebTestException
+		 */
+		String[] nextRow()
+		throws SeleniumWebTestException;
+		
+		/**
+		 * Releases any resources held by the reader.
+		 */
+		void close();
+	}
+	
+	/**
+	 * Opens a reader for the rows of a sheet.
+	 * 
+	 * @param file data file.
+	 * @param sheetName sheet name.
+	 * @return a row reader.
+	 * @throws SeleniumWebTestException
+	 */
+	protected abstract RowReader openRows( File file, String sheetName )
+	throws SeleniumWebTestException;
+	
+	/* (non-Javadoc)
+	 * @see br.eti.kinoshita.selenium.data.TableDataSource#readTable(java.io.File, java.lang.String, java.lang.String)
+	 */
+	public String[][] readTable( File file, String sheetName, String tableName )
+	throws SeleniumWebTestException
+	{
+		LOGGER.debug("Opening data file " + file);
+		final RowReader reader = openRows(file, sheetName);
+		try
+		{
+			final List<String[]> rows = new ArrayList<String[]>();
+			int startColumn = -1;
+			String[] cells;
+			while ( (cells = reader.nextRow()) != null )
+			{
+				if ( startColumn < 0 )
+				{
+					startColumn = indexOf(cells, tableName, 0);
+					continue;
+				}
+				final int endColumn = indexOf(cells, tableName, startColumn + 1);
+				if ( endColumn >= 0 )
+				{
+					final String[][] table = new String[rows.size()][];
+					for ( int i = 0 ; i < table.length ; ++i )
+					{
+						table[i] = slice(rows.get(i), 0, endColumn - startColumn - 1);
+					}
+					if ( table.length <= 0 )
+					{
+						throw new SeleniumWebTestException("Empty data table " + tableName);
+					}
+					return table;
+				}
+				rows.add(slice(cells, startColumn + 1, Math.max(cells.length - startColumn - 1, 0)));
+			}
+			throw new SeleniumWebTestException("Could not find the start and end markers of table " + tableName + " in " + file);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see br.eti.kinoshita.selenium.data.TableDataSource#iterateTable(java.io.File, java.lang.String, java.lang.String)
+	 */
+	public Iterator<Object[]> iterateTable( File file, String sheetName, String tableName )
+	throws SeleniumWebTestException
+	{
+		final TableBounds bounds = findTableBounds(file, sheetName, tableName);
+		LOGGER.debug(bounds.toString());
+		final RowReader reader = openRows(file, sheetName);
+		boolean handedOut = false;
+		try
+		{
+			for ( int i = 0 ; i <= bounds.getStartRow() ; ++i )
+			{
+				reader.nextRow();
+			}
+			final Iterator<Object[]> iterator = new RowStreamIterator(reader, bounds);
+			handedOut = true;
+			return iterator;
+		}
+		finally
+		{
+			if ( ! handedOut )
+			{
+				reader.close();
+			}
+		}
+	}
+	
+	/**
+	 * Reads the file up to the end marker of a table, to find its bounds.
+	 * 
+	 * @param file data file.
+	 * @param sheetName sheet name.
+	 * @param tableName table name.
+	 * @return the table bounds.
+	 * @throws SeleniumWebTestException if the markers could not be found.
+	 */
+	protected TableBounds findTableBounds( File file, String sheetName, String tableName )
+	throws SeleniumWebTestException
+	{
+		final RowReader reader = openRows(file, sheetName);
+		try
+		{
+			int row = 0;
+			int startRow = -1;
+			int startColumn = -1;
+			String[] cells;
+			while ( (cells = reader.nextRow()) != null )
+			{
+				if ( startRow < 0 )
+				{
+					startColumn = indexOf(cells, tableName, 0);
+					if ( startColumn >= 0 )
+					{
+						startRow = row;
+					}
+				}
+				else
+				{
+					final int endColumn = indexOf(cells, tableName, startColumn + 1);
+					if ( endColumn >= 0 )
+					{
+						return new TableBounds(startRow, startColumn, row, endColumn);
+					}
+				}
+				++row;
+			}
+			throw new SeleniumWebTestException("Could not find the start and end markers of table " + tableName + " in " + file);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	private static int indexOf( String[] cells, String value, int from )
+	{
+		for ( int i = from ; i < cells.length ; ++i )
+		{
+			if ( value.equals(cells[i]) )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/*
+	 * Copies length cells starting at from, using empty cells for missing 
+	 * ones, as short rows are common in CSV and XLSX files.
+	 */
+	static String[] slice( String[] cells, int from, int length )
+	{
+		final String[] slice = new String[length];
+		for ( int i = 0 ; i < length ; ++i )
+		{
+			final int j = from + i;
+			slice[i] = j < cells.length && cells[j] != null ? cells[j] : "";
+		}
+		return slice;
+	}
+	
+	/**
+	 * Hands out the rows of a table while reading them. Thread-safe.
+	 */
+	private static final class RowStreamIterator 
+	implements Iterator<Object[]>
+	{
+		private final RowReader reader;
+		private final TableBounds bounds;
+		private int row;
+		private String[] next;
+		
+		private RowStreamIterator( RowReader reader, TableBounds bounds )
+		{
+			this.reader = reader;
+			this.bounds = bounds;
+			this.row = bounds.getStartRow() + 1;
+			advance();
+		}
+		
+		private void advance()
+		{
+			next = null;
+			if ( row < bounds.getEndRow() )
+			{
+				final String[] cells = reader.nextRow();
+				if ( cells != null )
+				{
+					next = slice(cells, bounds.getStartColumn() + 1, bounds.getColumns());
+					++row;
+				}
+			}
+			if ( next == null )
+			{
+				reader.close();
+			}
+		}
+
+		public synchronized boolean hasNext()
+		{
+			return next != null;
+		}
+
+		public synchronized Object[] next()
+		{
+			if ( next == null )
+			{
+				throw new NoSuchElementException();
+			}
+			final Object[] values = next;
+			advance();
+			return values;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException("Test data is read-only");
+		}
+	}
+	
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import jxl.Sheet;
+import jxl.Workbook;
+
+/**
+ * <p>Iterates over the rows of a table in a sheet, reading the cells of 
+ * each row only when it is requested. The workbook is closed when the last 
+ * row is read.</p>
+ * 
+ * <p>This iterator is thread-safe, so it can be used by TestNG data 
+ * providers with parallel=true.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class SheetTableIterator 
+implements Iterator<Object[]>
+{
+
+	private final Workbook workbook;
+	private final Sheet sheet;
+	private final TableBounds bounds;
+	private int row;
+	
+	/**
+	 * @param workbook workbook, closed after the last row is read.
+	 * @param sheet sheet containing the table.
+	 * @param bounds table position.
+	 */
+	public SheetTableIterator( Workbook workbook, Sheet sheet, TableBounds bounds )
+	{
+		this.workbook = workbook;
+		this.sheet = sheet;
+		this.bounds = bounds;
+		this.row = bounds.getStartRow() + 1;
+		if ( ! hasNext() )
+		{
+			workbook.close();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	public synchronized boolean hasNext()
+	{
+		return row < bounds.getEndRow();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	public synchronized Object[] next()
+	{
+		if ( ! hasNext() )
+		{
+			throw new NoSuchElementException();
+		}
+		final Object[] values = new Object[bounds.getColumns()];
+		for ( int j = bounds.getStartColumn() + 1, cj = 0 ; j < bounds.getEndColumn() ; ++j, ++cj )
+		{
+			values[cj] = sheet.getCell(j, row).getContents();
+		}
+		++row;
+		if ( ! hasNext() )
+		{
+			workbook.close();
+		}
+		return values;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#remove()
+	 */
+	public void remove()
+	{
+		throw new UnsupportedOperationException("Test data is read-only");
+	}
+	
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+/**
+ * <p>Position of a table in a sheet. A table is delimited by two marker 
+ * cells containing the table name: the start marker, at the top left 
+ * corner, and the end marker, at the bottom right corner. The data is 
+ * what lies strictly between them.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TableBounds
+{
+
+	private final int startRow;
+	private final int startColumn;
+	private final int endRow;
+	private final int endColumn;
+	
+	/**
+	 * @param startRow row of the start marker.
+	 * @param startColumn column of the start marker.
+	 * @param endRow row of the end marker.
+	 * @param endColumn column of the end marker.
+	 */
+	public TableBounds( int startRow, int startColumn, int endRow, int endColumn )
+	{
+		this.startRow = startRow;
+		this.startColumn = startColumn;
+		this.endRow = endRow;
+		this.endColumn = endColumn;
+	}
+
+	public int getStartRow()
+	{
+		return startRow;
+	}
+
+	public int getStartColumn()
+	{
+		return startColumn;
+	}
+
+	public int getEndRow()
+	{
+		return endRow;
+	}
+
+	public int getEndColumn()
+	{
+		return endColumn;
+	}
+	
+	/**
+	 * @return number of data rows.
+	 */
+	public int getRows()
+	{
+		return endRow - startRow - 1;
+	}
+	
+	/**
+	 * @return number of data columns.
+	 */
+	public int getColumns()
+	{
+		return endColumn - startColumn - 1;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return "startRow="+startRow+", endRow="+endRow+", startCol="+startColumn+", endCol="+endColumn;
+	}
+	
+}
@@ -0,0 +1,399 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>A process wide cache of tables parsed from data files. Tables are 
+ * keyed by file, sheet and table name, and are parsed again when the file 
+ * last modified time or size changes. Both text tables and typed 
+ * {@link DataTable}s are cached.</p>
+ * 
+ * <p>The cache has a memory cap (an estimate, based on the number and 
+ * length of the cells). When it is exceeded, the least recently used 
+ * tables are evicted. If several threads ask for the same table at the same 
+ * time, only one of them parses it.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TableCache
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( TableCache.class );
+	
+	/**
+	 * Default memory cap, 64MB.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+	
+	private static final TableCache INSTANCE = new TableCache(DEFAULT_MAX_BYTES);
+	
+	/**
+	 * Parses a table when it is not in the cache.
+	 */
+	public interface Loader
+	{
+		String[][] load( File file, String sheetName, String tableName ) 
+		throws SeleniumWebTestException;
+	}
+	
+	private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private final Map<Key, FutureTask<Entry>> loading = new HashMap<Key, FutureTask<Entry>>();
+	private long maxBytes;
+	private long usedBytes = 0L;
+	
+	public TableCache( long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * @return the process wide cache.
+	 */
+	public static TableCache getInstance()
+	{
+		return INSTANCE;
+	}
+	
+	public synchronized long getMaxBytes()
+	{
+		return maxBytes;
+	}
+	
+	/**
+	 * Sets the memory cap, evicting tables if necessary.
+	 * 
+	 * @param maxBytes memory cap in bytes.
+	 */
+	public synchronized void setMaxBytes( long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+		evict();
+	}
+	
+	/**
+	 * @return estimated memory used by the cached tables, in bytes.
+	 */
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+	
+	/**
+	 * Removes all tables from the cache.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		usedBytes = 0L;
+	}
+	
+	/**
+	 * Gets a table from the cache, parsing it with the loader if it is not 
+	 * there or if the file changed. The array returned is a copy, so 
+	 * callers may change it.
+	 * 
+	 * @param file data file.
+	 * @param sheetName sheet name.
+	 * @param tableName table name.
+	 * @param loader used to parse the table when needed.
+	 * @return the table.
+	 * @throws SeleniumWebTestException
+	 */
+	public String[][] get( final File file, final String sheetName, final String tableName, final Loader loader )
+	throws SeleniumWebTestException
+	{
+		final Key key = new Key(file.getAbsolutePath(), sheetName, tableName, "text");
+		return copy( (String[][]) get(key, file, new Callable<Object>()
+		{
+			public Object call()
+			throws Exception
+			{
+				return loader.load(file, sheetName, tableName);
+			}
+		}));
+	}
+	
+	/**
+	 * Gets a typed table from the cache, creating it from the text table if 
+	 * it is not there or if the file changed. The text table is read with 
+	 * {@link #get(File, String, String, Loader)}, so it may come from the 
+	 * cache too. The typed table is immutable and is not copied.
+	 * 
+	 * @param file data file.
+	 * @param sheetName sheet name.
+	 * @param tableName table name.
+	 * @param header whether the first row of the table is a header.
+	 * @param loader used to parse the table when needed.
+	 * @return the typed table.
+	 * @throws SeleniumWebTestException
+	 */
+	public DataTable getDataTable( final File file, final String sheetName, final String tableName, 
+			final boolean header, final Loader loader )
+	throws SeleniumWebTestException
+	{
+		final Key key = new Key(file.getAbsolutePath(), sheetName, tableName, header ? "typed-header" : "typed");
+		return (DataTable) get(key, file, new Callable<Object>()
+		{
+			public Object call()
+			throws Exception
+			{
+				return DataTable.create(get(file, sheetName, tableName, loader), header);
+			}
+		});
+	}
+	
+	private Object get( final Key key, final File file, final Callable<Object> loader )
+	throws SeleniumWebTestException
+	{
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		
+		FutureTask<Entry> task = null;
+		boolean owner = false;
+		synchronized ( this )
+		{
+			final Entry entry = entries.get(key);
+			if ( entry != null )
+			{
+				if ( entry.lastModified == lastModified && entry.length == length )
+				{
+					LOGGER.debug("Table " + key + " found in cache");
+					return entry.value;
+				}
+				remove(key);
+			}
+			task = loading.get(key);
+			if ( task == null )
+			{
+				task = new FutureTask<Entry>(new Callable<Entry>()
+				{
+					public Entry call() 
+					throws Exception
+					{
+						return new Entry(loader.call(), lastModified, length);
+					}
+				});
+				loading.put(key, task);
+				owner = true;
+			}
+		}
+		
+		if ( owner )
+		{
+			task.run();
+		}
+		
+		Entry entry = null;
+		try
+		{
+			entry = task.get();
+		}
+		catch ( InterruptedException ie )
+		{
+			Thread.currentThread().interrupt();
+			throw new SeleniumWebTestException(ie);
+		}
+		catch ( ExecutionException ee )
+		{
+			if ( ee.getCause() instanceof SeleniumWebTestException )
+			{
+				throw (SeleniumWebTestException) ee.getCause();
+			}
+			throw new SeleniumWebTestException(ee.getCause());
+		}
+		finally
+		{
+			if ( owner )
+			{
+				// in the same block, so that no thread sees neither the 
+				// entry nor the task and loads the table again
+				synchronized ( this )
+				{
+					if ( entry != null )
+					{
+						put(key, entry);
+					}
+					if ( loading.get(key) == task )
+					{
+						loading.remove(key);
+					}
+				}
+			}
+		}
+		return entry.value;
+	}
+	
+	private synchronized void put( Key key, Entry entry )
+	{
+		if ( entry.bytes > maxBytes )
+		{
+			LOGGER.debug("Table " + key + " is too large to be cached (" + entry.bytes + " bytes)");
+			return;
+		}
+		remove(key);
+		entries.put(key, entry);
+		usedBytes += entry.bytes;
+		evict();
+	}
+	
+	private void remove( Key key )
+	{
+		final Entry old = entries.remove(key);
+		if ( old != null )
+		{
+			usedBytes -= old.bytes;
+		}
+	}
+	
+	/*
+	 * Evicts the least recently used tables until we are under the cap.
+	 */
+	private void evict()
+	{
+		final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+		while ( usedBytes > maxBytes && iterator.hasNext() )
+		{
+			final Map.Entry<Key, Entry> eldest = iterator.next();
+			LOGGER.debug("Evicting table " + eldest.getKey() + " from cache");
+			usedBytes -= eldest.getValue().bytes;
+			iterator.remove();
+		}
+	}
+	
+	private static String[][] copy( String[][] table )
+	{
+		final String[][] copy = new String[table.length][];
+		for ( int i = 0 ; i < table.length ; ++i )
+		{
+			copy[i] = table[i].clone();
+		}
+		return copy;
+	}
+	
+	/*
+	 * Rough estimate of the memory used by a table: object headers, 
+	 * references and chars.
+	 */
+	static long estimateBytes( String[][] table )
+	{
+		long bytes = 16L + 4L * table.length;
+		for ( String[] row : table )
+		{
+			bytes += 16L + 4L * row.length;
+			for ( String cell : row )
+			{
+				if ( cell != null )
+				{
+					bytes += 40L + 2L * cell.length();
+				}
+			}
+		}
+		return bytes;
+	}
+	
+	private static final class Entry
+	{
+		private final Object value;
+		private final long lastModified;
+		private final long length;
+		private final long bytes;
+		
+		private Entry( Object value, long lastModified, long length )
+		{
+			this.value = value;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.bytes = value instanceof DataTable ? 
+					((DataTable) value).estimateBytes() : estimateBytes((String[][]) value);
+		}
+	}
+	
+	private static final class Key
+	{
+		private final String file;
+		private final String sheetName;
+		private final String tableName;
+		private final String variant;
+		
+		private Key( String file, String sheetName, String tableName, String variant )
+		{
+			this.file = file;
+			this.sheetName = sheetName;
+			this.tableName = tableName;
+			this.variant = variant;
+		}
+		
+		public boolean equals( Object obj )
+		{
+			if ( this == obj )
+			{
+				return true;
+			}
+			if ( ! (obj instanceof Key) )
+			{
+				return false;
+			}
+			final Key other = (Key) obj;
+			return file.equals(other.file) && 
+				equal(sheetName, other.sheetName) && 
+				equal(tableName, other.tableName) && 
+				variant.equals(other.variant);
+		}
+		
+		public int hashCode()
+		{
+			int hash = file.hashCode();
+			hash = 31 * hash + (sheetName == null ? 0 : sheetName.hashCode());
+			hash = 31 * hash + (tableName == null ? 0 : tableName.hashCode());
+			hash = 31 * hash + variant.hashCode();
+			return hash;
+		}
+		
+		public String toString()
+		{
+			return file + "!" + sheetName + "!" + tableName + " (" + variant + ")";
+		}
+		
+		private static boolean equal( String a, String b )
+		{
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+	
+}
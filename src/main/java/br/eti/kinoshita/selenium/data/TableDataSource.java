@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.util.Iterator;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>A source of test data tables. Implementations read tables from a 
+ * specific file format. In every format, a table is delimited by two 
+ * marker cells containing the table name, as described in 
+ * {@link TableBounds}.</p>
+ * 
+ * <p>Implementations must be thread-safe, as the same instance is shared 
+ * by all data-driven tests. See {@link TableDataSources} for how a data 
+ * source is chosen.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public interface TableDataSource
+{
+
+	/**
+	 * Reads a whole table.
+	 * 
+	 * @param file data file.
+	 * @param sheetName sheet name. Formats without sheets ignore it.
+	 * @param tableName table name.
+	 * @return the table cells, row by row.
+	 * @throws SeleniumWebTestException
+	 */
+	String[][] readTable( File file, String sheetName, String tableName )
+	throws SeleniumWebTestException;
+	
+	/**
+	 * Returns an iterator that reads the table rows as they are requested. 
+	 * The iterator must be thread-safe, and release any resources after the 
+	 * last row is read.
+	 * 
+	 * @param file data file.
+	 * @param sheetName sheet name. Formats without sheets ignore it.
+	 * @param tableName table name.
+	 * @return an iterator over the table rows.
+	 * @throws SeleniumWebTestException
+	 */
+	Iterator<Object[]> iterateTable( File file, String sheetName, String tableName )
+	throws SeleniumWebTestException;
+	
+}
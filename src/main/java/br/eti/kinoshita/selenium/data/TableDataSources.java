@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Registry of {@link TableDataSource}s, by format. The following formats 
+ * are registered by default:</p>
+ * 
+ * <ul>
+ * <li>xls: legacy Excel files, read with JExcelAPI</li>
+ * <li>xlsx: Excel 2007+ files, streamed with SAX</li>
+ * <li>csv: comma separated values, memory-mapped</li>
+ * <li>tsv and tab: tab separated values, memory-mapped</li>
+ * </ul>
+ * 
+ * <p>The format is the extension of the data file, unless one is given 
+ * explicitly (selenium.data.format). Other formats can be added with 
+ * {@link #register(String, TableDataSource)}, or by using the fully 
+ * qualified name of a TableDataSource class as the format.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class TableDataSources
+{
+
+	private static final Map<String, TableDataSource> SOURCES = new ConcurrentHashMap<String, TableDataSource>();
+	
+	static
+	{
+		register("xls", new JxlTableDataSource());
+		register("xlsx", new XlsxTableDataSource());
+		register("csv", new DelimitedTableDataSource(','));
+		register("tsv", new DelimitedTableDataSource('\t'));
+		register("tab", new DelimitedTableDataSource('\t'));
+	}
+	
+	private TableDataSources() {} // Hidden constructor as 'tis a utility class.
+	
+	/**
+	 * Registers a data source for a format, replacing any previous one.
+	 * 
+	 * @param format format name, usually the file extension.
+	 * @param source data source.
+	 */
+	public static void register( String format, TableDataSource source )
+	{
+		SOURCES.put(format.toLowerCase(), source);
+	}
+	
+	/**
+	 * Gets the data source for a file.
+	 * 
+	 * @param file data file.
+	 * @param format format name or class name. If blank, the file 
+	 * extension is used.
+	 * @return the data source.
+	 * @throws SeleniumWebTestException if there is no data source for the 
+	 * format.
+	 */
+	public static TableDataSource forFile( File file, String format )
+	throws SeleniumWebTestException
+	{
+		if ( StringUtils.isBlank(format) )
+		{
+			format = StringUtils.substringAfterLast(file.getName(), ".");
+		}
+		TableDataSource source = SOURCES.get(format.toLowerCase());
+		if ( source == null && format.indexOf('.') > 0 )
+		{
+			source = newDataSource(format);
+			SOURCES.put(format.toLowerCase(), source);
+		}
+		if ( source == null )
+		{
+			throw new SeleniumWebTestException("No data source for format '" + format + "' of file " + file);
+		}
+		return source;
+	}
+	
+	private static TableDataSource newDataSource( String className )
+	throws SeleniumWebTestException
+	{
+		try
+		{
+			return (TableDataSource) Class.forName(className).newInstance();
+		}
+		catch ( Exception e )
+		{
+			throw new SeleniumWebTestException("Failed to create data source " + className, e);
+		}
+	}
+	
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import jxl.Cell;
+import jxl.CellType;
+import jxl.Sheet;
+
+/**
+ * <p>Index of the table markers of a sheet, built in a single pass over its 
+ * cells. Once built, the bounds of any table of the sheet are found in 
+ * constant time, no matter how many tables the sheet has or how wide 
+ * it is.</p>
+ * 
+ * <p>Every non empty cell is indexed by its contents, whatever its type, as 
+ * Sheet#findCell does. The start marker of a table is the first cell, 
+ * reading row by row, containing the table name. The end marker is 
+ * the next one below and to the right of the start marker.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TableMarkerIndex
+{
+
+	private static final int MAX_CACHED_INDEXES = 32;
+	
+	/*
+	 * Indexes of recently used sheets, keyed by file and sheet name.
+	 */
+	private static final Map<String, TableMarkerIndex> INDEXES = 
+		new LinkedHashMap<String, TableMarkerIndex>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry( Map.Entry<String, TableMarkerIndex> eldest )
+			{
+				return size() > MAX_CACHED_INDEXES;
+			}
+		};
+	
+	private final Map<String, TableBounds> tables = new HashMap<String, TableBounds>();
+	private long lastModified;
+	private long length;
+	
+	/**
+	 * Builds the index of a sheet.
+	 * 
+	 * @param sheet sheet.
+	 */
+	public TableMarkerIndex( Sheet sheet )
+	{
+		final Map<String, Cell> starts = new HashMap<String, Cell>();
+		final int rows = sheet.getRows();
+		for ( int i = 0 ; i < rows ; ++i )
+		{
+			for ( Cell cell : sheet.getRow(i) )
+			{
+				if ( cell.getType() == CellType.EMPTY )
+				{
+					continue;
+				}
+				final String contents = cell.getContents();
+				if ( contents == null || contents.length() == 0 || tables.containsKey(contents) )
+				{
+					continue;
+				}
+				final Cell start = starts.get(contents);
+				if ( start == null )
+				{
+					starts.put(contents, cell);
+				}
+				else if ( cell.getRow() > start.getRow() && cell.getColumn() > start.getColumn() )
+				{
+					starts.remove(contents);
+					tables.put(contents, new TableBounds(start.getRow(), start.getColumn(), 
+							cell.getRow(), cell.getColumn()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the index of a sheet, building it only if the sheet was not 
+	 * indexed before or if the file has changed since then.
+	 * 
+	 * @param file file containing the sheet.
+	 * @param sheetName sheet name.
+	 * @param sheet sheet.
+	 * @return the index.
+	 */
+	public static TableMarkerIndex forSheet( File file, String sheetName, Sheet sheet )
+	{
+		final String key = file.getAbsolutePath() + "!" + sheetName;
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		synchronized ( INDEXES )
+		{
+			final TableMarkerIndex index = INDEXES.get(key);
+			if ( index != null && index.lastModified == lastModified && index.length == length )
+			{
+				return index;
+			}
+		}
+		final TableMarkerIndex index = new TableMarkerIndex(sheet);
+		index.lastModified = lastModified;
+		index.length = length;
+		synchronized ( INDEXES )
+		{
+			INDEXES.put(key, index);
+		}
+		return index;
+	}
+	
+	/**
+	 * @param tableName table name.
+	 * @return the table bounds, or <code>null</code> if the sheet does not 
+	 * contain both markers of the table.
+	 */
+	public TableBounds getTable( String tableName )
+	{
+		return tables.get(tableName);
+	}
+	
+	/**
+	 * @return the names of all the tables found in the sheet.
+	 */
+	public Set<String> getTableNames()
+	{
+		return tables.keySet();
+	}
+	
+}
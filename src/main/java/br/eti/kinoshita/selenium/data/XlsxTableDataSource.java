@@ -0,0 +1,471 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Reads tables from Excel 2007+ (.xlsx) files. The sheet XML is parsed 
+ * with SAX in a background thread, which hands rows out through a small 
+ * bounded queue. So the sheet is never held in memory as a whole, only 
+ * the shared strings table is.</p>
+ * 
+ * <p>Cells are read as their raw values: numbers and dates are not 
+ * formatted, and booleans become "true" or "false".</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class XlsxTableDataSource 
+extends RowStreamTableDataSource
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( XlsxTableDataSource.class );
+	
+	private static final String RELATIONSHIPS_NS = 
+		"http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	
+	private static final int QUEUE_SIZE = 256;
+	
+	/*
+	 * Marks the end of the sheet in the row queue.
+	 */
+	private static final String[] END_OF_SHEET = new String[0];
+	
+	/* (non-Javadoc)
+	 * @see br.eti.kinoshita.selenium.data.RowStreamTableDataSource#openRows(java.io.File, java.lang.String)
+	 */
+	protected RowReader openRows( File file, String sheetName )
+	throws SeleniumWebTestException
+	{
+		ZipFile zip = null;
+		try
+		{
+			zip = new ZipFile(file);
+			final String sheetPath = findSheetPath(zip, sheetName);
+			final List<String> sharedStrings = readSharedStrings(zip);
+			final XlsxRowReader reader = new XlsxRowReader(zip, zip.getEntry(sheetPath), sharedStrings);
+			zip = null;
+			return reader;
+		}
+		catch ( IOException ioe )
+		{
+			LOGGER.error("IO Exception reading xlsx file: " + ioe.getMessage(), ioe);
+			throw new SeleniumWebTestException(ioe);
+		}
+		catch ( SAXException se )
+		{
+			LOGGER.error("Invalid xlsx file: " + se.getMessage(), se);
+			throw new SeleniumWebTestException(se);
+		}
+		finally
+		{
+			if ( zip != null )
+			{
+				closeQuietly(zip);
+			}
+		}
+	}
+	
+	/*
+	 * Finds the sheet part in the workbook and its relationships. If no 
+	 * sheet name is given, the first sheet is used.
+	 */
+	private String findSheetPath( ZipFile zip, final String sheetName )
+	throws IOException, SAXException
+	{
+		final String[] relationshipId = new String[1];
+		parse(zip, "xl/workbook.xml", new DefaultHandler()
+		{
+			public void startElement( String uri, String localName, String qName, Attributes attributes )
+			{
+				if ( relationshipId[0] == null && "sheet".equals(localName) && 
+						(sheetName == null || sheetName.equals(attributes.getValue("name"))) )
+				{
+					relationshipId[0] = attributes.getValue(RELATIONSHIPS_NS, "id");
+				}
+			}
+		});
+		if ( relationshipId[0] == null )
+		{
+			throw new SeleniumWebTestException("Could not find sheet " + sheetName);
+		}
+		final String[] target = new String[1];
+		parse(zip, "xl/_rels/workbook.xml.rels", new DefaultHandler()
+		{
+			public void startElement( String uri, String localName, String qName, Attributes attributes )
+			{
+				if ( "Relationship".equals(localName) && relationshipId[0].equals(attributes.getValue("Id")) )
+				{
+					target[0] = attributes.getValue("Target");
+				}
+			}
+		});
+		if ( target[0] == null )
+		{
+			throw new SeleniumWebTestException("Could not find the part of sheet " + sheetName);
+		}
+		return target[0].startsWith("/") ? target[0].substring(1) : "xl/" + target[0];
+	}
+	
+	private List<String> readSharedStrings( ZipFile zip )
+	throws IOException, SAXException
+	{
+		final List<String> strings = new ArrayList<String>();
+		if ( zip.getEntry("xl/sharedStrings.xml") == null )
+		{
+			return strings;
+		}
+		parse(zip, "xl/sharedStrings.xml", new DefaultHandler()
+		{
+			private StringBuilder text = null;
+			private boolean inText = false;
+			private boolean inPhonetic = false;
+			
+			public void startElement( String uri, String localName, String qName, Attributes attributes )
+			{
+				if ( "si".equals(localName) )
+				{
+					text = new StringBuilder();
+				}
+				else if ( "rPh".equals(localName) )
+				{
+					inPhonetic = true;
+				}
+				else if ( "t".equals(localName) )
+				{
+					inText = ! inPhonetic;
+				}
+			}
+			
+			public void characters( char[] ch, int start, int length )
+			{
+				if ( inText && text != null )
+				{
+					text.append(ch, start, length);
+				}
+			}
+			
+			public void endElement( String uri, String localName, String qName )
+			{
+				if ( "si".equals(localName) )
+				{
+					strings.add(text.toString());
+					text = null;
+				}
+				else if ( "rPh".equals(localName) )
+				{
+					inPhonetic = false;
+				}
+				else if ( "t".equals(localName) )
+				{
+					inText = false;
+				}
+			}
+		});
+		return strings;
+	}
+	
+	private static void parse( ZipFile zip, String path, DefaultHandler handler )
+	throws IOException, SAXException
+	{
+		final ZipEntry entry = zip.getEntry(path);
+		if ( entry == null )
+		{
+			throw new SeleniumWebTestException("Missing xlsx part " + path);
+		}
+		final InputStream input = zip.getInputStream(entry);
+		try
+		{
+			newParser().parse(input, handler);
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+	
+	private static SAXParser newParser()
+	throws SAXException
+	{
+		final SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		try
+		{
+			return factory.newSAXParser();
+		}
+		catch ( ParserConfigurationException pce )
+		{
+			throw new SAXException(pce);
+		}
+	}
+	
+	private static void closeQuietly( ZipFile zip )
+	{
+		try
+		{
+			zip.close();
+		}
+		catch ( IOException ioe )
+		{
+			LOGGER.debug(ioe.getMessage(), ioe);
+		}
+	}
+	
+	/*
+	 * Converts a cell reference like "AB12" to a zero based column index.
+	 */
+	static int columnIndex( String reference )
+	{
+		int column = 0;
+		for ( int i = 0 ; i < reference.length() ; ++i )
+		{
+			final char c = reference.charAt(i);
+			if ( c < 'A' || c > 'Z' )
+			{
+				break;
+			}
+			column = column * 26 + (c - 'A' + 1);
+		}
+		return column - 1;
+	}
+	
+	/**
+	 * Pulls rows from a SAX parser running in a background thread.
+	 */
+	private static final class XlsxRowReader 
+	implements RowReader
+	{
+		private final ZipFile zip;
+		private final BlockingQueue<String[]> rows = new ArrayBlockingQueue<String[]>(QUEUE_SIZE);
+		private final Thread producer;
+		private volatile Throwable error = null;
+		private boolean finished = false;
+		private volatile boolean closed = false;
+		
+		private XlsxRowReader( final ZipFile zip, final ZipEntry sheet, final List<String> sharedStrings )
+		{
+			this.zip = zip;
+			this.producer = new Thread("xlsx-reader")
+			{
+				public void run()
+				{
+					try
+					{
+						parse(zip, sheet.getName(), new SheetHandler(rows, sharedStrings));
+					}
+					catch ( Throwable t )
+					{
+						error = t;
+					}
+					finally
+					{
+						// Nobody drains the queue once the reader is closed
+						if ( ! closed )
+						{
+							try
+							{
+								rows.put(END_OF_SHEET);
+							}
+							catch ( InterruptedException ie )
+							{
+								// Closed by the consumer
+							}
+						}
+					}
+				}
+			};
+			this.producer.setDaemon(true);
+			this.producer.start();
+		}
+
+		public String[] nextRow()
+		throws SeleniumWebTestException
+		{
+			if ( finished )
+			{
+				return null;
+			}
+			final String[] row;
+			try
+			{
+				row = rows.take();
+			}
+			catch ( InterruptedException ie )
+			{
+				Thread.currentThread().interrupt();
+				throw new SeleniumWebTestException(ie);
+			}
+			if ( row == END_OF_SHEET )
+			{
+				finished = true;
+				if ( error != null )
+				{
+					throw new SeleniumWebTestException("Failed to read xlsx sheet: " + error.getMessage(), error);
+				}
+				return null;
+			}
+			return row;
+		}
+
+		public void close()
+		{
+			finished = true;
+			closed = true;
+			producer.interrupt();
+			// Frees a producer blocked on a full queue, even if the 
+			// interrupt was swallowed by the parser
+			rows.clear();
+			closeQuietly(zip);
+		}
+	}
+	
+	/**
+	 * Sends the rows of a sheet to a queue, including empty rows for the 
+	 * gaps, so that row numbers are preserved.
+	 */
+	private static final class SheetHandler 
+	extends DefaultHandler
+	{
+		private final BlockingQueue<String[]> rows;
+		private final List<String> sharedStrings;
+		private final List<String> cells = new ArrayList<String>();
+		private final StringBuilder value = new StringBuilder();
+		private int nextRow = 0;
+		private int column = -1;
+		private String type = null;
+		private boolean inValue = false;
+		
+		private SheetHandler( BlockingQueue<String[]> rows, List<String> sharedStrings )
+		{
+			this.rows = rows;
+			this.sharedStrings = sharedStrings;
+		}
+		
+		public void startElement( String uri, String localName, String qName, Attributes attributes )
+		throws SAXException
+		{
+			if ( "row".equals(localName) )
+			{
+				final String r = attributes.getValue("r");
+				final int row = r == null ? nextRow : Integer.parseInt(r) - 1;
+				while ( nextRow < row )
+				{
+					put(new String[0]);
+					++nextRow;
+				}
+				cells.clear();
+			}
+			else if ( "c".equals(localName) )
+			{
+				final String r = attributes.getValue("r");
+				column = r == null ? cells.size() : columnIndex(r);
+				type = attributes.getValue("t");
+				value.setLength(0);
+			}
+			else if ( "v".equals(localName) || "t".equals(localName) )
+			{
+				inValue = true;
+			}
+		}
+		
+		public void characters( char[] ch, int start, int length )
+		{
+			if ( inValue )
+			{
+				value.append(ch, start, length);
+			}
+		}
+		
+		public void endElement( String uri, String localName, String qName )
+		throws SAXException
+		{
+			if ( "v".equals(localName) || "t".equals(localName) )
+			{
+				inValue = false;
+			}
+			else if ( "c".equals(localName) )
+			{
+				while ( cells.size() < column )
+				{
+					cells.add("");
+				}
+				cells.add(cellValue());
+			}
+			else if ( "row".equals(localName) )
+			{
+				put(cells.toArray(new String[cells.size()]));
+				++nextRow;
+			}
+		}
+		
+		private String cellValue()
+		{
+			final String raw = value.toString();
+			if ( "s".equals(type) )
+			{
+				return sharedStrings.get(Integer.parseInt(raw.trim()));
+			}
+			else if ( "b".equals(type) )
+			{
+				return "1".equals(raw) ? "true" : "false";
+			}
+			return raw;
+		}
+		
+		private void put( String[] row )
+		throws SAXException
+		{
+			try
+			{
+				rows.put(row);
+			}
+			catch ( InterruptedException ie )
+			{
+				throw new SAXException(ie);
+			}
+		}
+	}
+	
+}
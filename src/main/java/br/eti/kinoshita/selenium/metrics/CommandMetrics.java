@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.metrics;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.tap4j.ext.testng.TAPAttribute;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+import br.eti.kinoshita.selenium.util.TapContextAttributes;
+
+/**
+ * <p>Latency histograms of WebDriver commands, by command (e.g. 
+ * WebDriver.get, WebElement.click). Each command is recorded twice: in 
+ * the suite-wide histograms, and in the histograms of the current thread, 
+ * which are published to the test result and to its test context by 
+ * {@link #publish(ITestResult)} and then reset.</p>
+ * 
+ * <p>The shared instance is <code>null</code> unless 
+ * selenium.driver.instrument is set.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class CommandMetrics
+{
+
+	/**
+	 * Name of the TAP attribute with the timings of a test.
+	 */
+	public static final String TIMINGS_ATTRIBUTE = "Timings";
+	
+	private static volatile CommandMetrics instance;
+	
+	private final Histograms suite = new Histograms();
+	
+	private final ThreadLocal<Histograms> test = new ThreadLocal<Histograms>()
+	{
+		@Override
+		protected Histograms initialValue()
+		{
+			return new Histograms();
+		}
+	};
+	
+	private volatile String reportFile;
+	
+	/**
+	 * @return the shared metrics, or <code>null</code> if the driver is 
+	 * not instrumented.
+	 */
+	public static CommandMetrics getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * @param metrics the shared metrics, <code>null</code> disables it.
+	 */
+	public static void setInstance( CommandMetrics metrics )
+	{
+		instance = metrics;
+	}
+	
+	/**
+	 * @return path of the suite-wide JSON report, may be <code>null</code>.
+	 */
+	public String getReportFile()
+	{
+		return reportFile;
+	}
+	
+	/**
+	 * @param reportFile path of the suite-wide JSON report, 
+	 * <code>null</code> disables it.
+	 */
+	public void setReportFile( String reportFile )
+	{
+		this.reportFile = reportFile;
+	}
+	
+	/**
+	 * Records the latency of a command, in the suite and in the current 
+	 * thread.
+	 * 
+	 * @param command command name.
+	 * @param nanos latency, in nanoseconds.
+	 */
+	public void record( String command, long nanos )
+	{
+		suite.get(command).record(nanos);
+		test.get().get(command).record(nanos);
+	}
+	
+	/**
+	 * @return the suite-wide histograms, by command.
+	 */
+	public Map<String, LatencyHistogram> getSuiteHistograms()
+	{
+		return new TreeMap<String, LatencyHistogram>(suite.histograms);
+	}
+	
+	/**
+	 * @return the histograms of the current thread, by command.
+	 */
+	public Map<String, LatencyHistogram> getThreadHistograms()
+	{
+		return new TreeMap<String, LatencyHistogram>(test.get().histograms);
+	}
+	
+	/**
+	 * Clears the suite-wide histograms.
+	 */
+	public void resetSuite()
+	{
+		suite.histograms.clear();
+	}
+	
+	/**
+	 * Clears the histograms of the current thread.
+	 */
+	public void reset()
+	{
+		test.remove();
+	}
+	
+	/**
+	 * Publishes the timings recorded by the current thread as a "Timings" 
+	 * TAPAttribute of the test result, merges them into the "Timings" 
+	 * TAPAttribute of the test context under the invocation key (see 
+	 * {@link TapContextAttributes}), and resets them. It must be called in 
+	 * the thread that ran the test method.
+	 * 
+	 * @param result test result.
+	 */
+	public void publish( ITestResult result )
+	{
+		final Map<String, LatencyHistogram> histograms = getThreadHistograms();
+		reset();
+		if ( histograms.isEmpty() )
+		{
+			return;
+		}
+		final Map<String, Object> timings = toMap(histograms);
+		final Method method = result.getMethod().getMethod();
+		result.setAttribute(TIMINGS_ATTRIBUTE, new TAPAttribute(method, timings));
+		final ITestContext context = result.getTestContext();
+		if ( context != null )
+		{
+			TapContextAttributes.merge(context, TIMINGS_ATTRIBUTE, method, TapContextAttributes.invocationKey(result), timings);
+		}
+	}
+	
+	/**
+	 * @param histograms histograms by command.
+	 * @return YAMLish friendly summary of the histograms, by command.
+	 */
+	public static Map<String, Object> toMap( Map<String, LatencyHistogram> histograms )
+	{
+		final Map<String, Object> map = new TreeMap<String, Object>();
+		for ( Map.Entry<String, LatencyHistogram> entry : histograms.entrySet() )
+		{
+			map.put(entry.getKey(), entry.getValue().toMap());
+		}
+		return map;
+	}
+	
+	private static final class Histograms
+	{
+		private final ConcurrentMap<String, LatencyHistogram> histograms = 
+				new ConcurrentHashMap<String, LatencyHistogram>();
+		
+		LatencyHistogram get( String command )
+		{
+			LatencyHistogram histogram = histograms.get(command);
+			if ( histogram == null )
+			{
+				final LatencyHistogram created = new LatencyHistogram();
+				histogram = histograms.putIfAbsent(command, created);
+				if ( histogram == null )
+				{
+					histogram = created;
+				}
+			}
+			return histogram;
+		}
+	}
+	
+}
@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.ClassUtils;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+/**
+ * <p>Wraps a WebDriver so that every command is timed and recorded in 
+ * {@link CommandMetrics}. Commands are named after the interface that 
+ * declares them, e.g. WebDriver.get, WebElement.click, 
+ * JavascriptExecutor.executeScript or TakesScreenshot.getScreenshotAs.</p>
+ * 
+ * <p>Elements, navigation, options, windows, etc, returned by the driver 
+ * are wrapped too, so their commands are also timed. Wrapped elements 
+ * are unwrapped before being passed back to the driver, e.g. as script 
+ * arguments. The wrapper implements all the public interfaces of the 
+ * driver, so checks like driver instanceof TakesScreenshot keep 
+ * working. The overhead is a reflective call and two System.nanoTime 
+ * calls per command.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class InstrumentedWebDriver
+{
+
+	private static final String SELENIUM_PACKAGE = "org.openqa.selenium";
+	
+	private InstrumentedWebDriver()
+	{
+	}
+	
+	/**
+	 * @param driver the driver to instrument.
+	 * @param metrics where the timings are recorded.
+	 * @return the instrumented driver.
+	 */
+	public static WebDriver wrap( WebDriver driver, CommandMetrics metrics )
+	{
+		return (WebDriver) wrap(driver, WebDriver.class, metrics);
+	}
+	
+	/**
+	 * @param object an instrumented object, or any other object.
+	 * @return the wrapped object, or the object itself if it is not 
+	 * instrumented.
+	 */
+	public static Object unwrap( Object object )
+	{
+		if ( object != null && Proxy.isProxyClass(object.getClass()) )
+		{
+			final InvocationHandler handler = Proxy.getInvocationHandler(object);
+			if ( handler instanceof TimingHandler )
+			{
+				return ((TimingHandler) handler).target;
+			}
+		}
+		return object;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Object wrap( Object target, Class<?> type, CommandMetrics metrics )
+	{
+		final Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		if ( type != null )
+		{
+			interfaces.add(type);
+		}
+		for ( Class<?> iface : (List<Class<?>>) ClassUtils.getAllInterfaces(target.getClass()) )
+		{
+			if ( Modifier.isPublic(iface.getModifiers()) )
+			{
+				interfaces.add(iface);
+			}
+		}
+		return Proxy.newProxyInstance(
+				InstrumentedWebDriver.class.getClassLoader(), 
+				interfaces.toArray(new Class<?>[interfaces.size()]), 
+				new TimingHandler(target, metrics));
+	}
+	
+	private static final class TimingHandler
+	implements InvocationHandler
+	{
+		private final Object target;
+		private final CommandMetrics metrics;
+		
+		TimingHandler( Object target, CommandMetrics metrics )
+		{
+			this.target = target;
+			this.metrics = metrics;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		public Object invoke( Object proxy, Method method, Object[] args )
+				throws Throwable
+		{
+			if ( method.getDeclaringClass() == Object.class )
+			{
+				if ( "equals".equals(method.getName()) )
+				{
+					return target.equals(unwrap(args[0]));
+				}
+				return method.invoke(target, args);
+			}
+			final Object[] arguments = unwrapArguments(args);
+			final long start = System.nanoTime();
+			final Object value;
+			try
+			{
+				value = method.invoke(target, arguments);
+			}
+			catch ( InvocationTargetException ite )
+			{
+				throw ite.getCause();
+			}
+			finally
+			{
+				metrics.record(method.getDeclaringClass().getSimpleName() + '.' + method.getName(), 
+						System.nanoTime() - start);
+			}
+			return wrapResult(value, method.getReturnType());
+		}
+		
+		private Object wrapResult( Object value, Class<?> returnType )
+		{
+			if ( value == null || Proxy.isProxyClass(value.getClass()) )
+			{
+				return value;
+			}
+			if ( value instanceof WebElement )
+			{
+				return wrap(value, WebElement.class, metrics);
+			}
+			if ( value instanceof List<?> )
+			{
+				final List<?> list = (List<?>) value;
+				final List<Object> wrapped = new ArrayList<Object>(list.size());
+				for ( Object element : list )
+				{
+					wrapped.add(element instanceof WebElement ? wrap(element, WebElement.class, metrics) : element);
+				}
+				return wrapped;
+			}
+			if ( returnType.isInterface() && returnType.getName().startsWith(SELENIUM_PACKAGE) )
+			{
+				return wrap(value, returnType, metrics);
+			}
+			return value;
+		}
+		
+		private static Object[] unwrapArguments( Object[] args )
+		{
+			if ( args == null )
+			{
+				return null;
+			}
+			// keeps the component type, e.g. CharSequence[] of sendKeys
+			final Object[] unwrapped = args.clone();
+			for ( int i = 0 ; i < args.length ; ++i )
+			{
+				unwrapped[i] = unwrapArgument(args[i]);
+			}
+			return unwrapped;
+		}
+		
+		/*
+		 * Unwraps elements at any depth of arrays, collections and maps, 
+		 * e.g. the List<List<Object>> of a JavascriptBatch.
+		 */
+		private static Object unwrapArgument( Object arg )
+		{
+			if ( arg instanceof Object[] )
+			{
+				return unwrapArguments((Object[]) arg);
+			}
+			if ( arg instanceof Collection<?> )
+			{
+				final List<Object> list = new ArrayList<Object>(((Collection<?>) arg).size());
+				for ( Object element : (Collection<?>) arg )
+				{
+					list.add(unwrapArgument(element));
+				}
+				return list;
+			}
+			if ( arg instanceof Map<?, ?> )
+			{
+				final Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+				for ( Map.Entry<?, ?> entry : ((Map<?, ?>) arg).entrySet() )
+				{
+					map.put(entry.getKey(), unwrapArgument(entry.getValue()));
+				}
+				return map;
+			}
+			return unwrap(arg);
+		}
+	}
+	
+}
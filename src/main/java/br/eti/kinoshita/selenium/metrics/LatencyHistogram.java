@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A lock-free latency histogram with logarithmic buckets. Each power of 
+ * two is split in 4 buckets, so percentiles are accurate to about 19%, 
+ * which is plenty to tell a 20ms click from a 2s one. Recording a value 
+ * costs a couple of atomic operations.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class LatencyHistogram
+{
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param nanos latency, in nanoseconds.
+	 */
+	public void record( long nanos )
+	{
+		final long value = nanos < 0 ? 0 : nanos;
+		buckets.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long current;
+		while ( value > (current = max.get()) )
+		{
+			if ( max.compareAndSet(current, value) )
+			{
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @return number of recorded values.
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+	
+	/**
+	 * @return sum of the recorded values, in nanoseconds.
+	 */
+	public long getTotal()
+	{
+		return total.get();
+	}
+	
+	/**
+	 * @return maximum recorded value, in nanoseconds.
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+	
+	/**
+	 * @param percentile from 0 to 100.
+	 * @return upper bound of the bucket of the percentile, in nanoseconds, 
+	 * never greater than the maximum.
+	 */
+	public long getPercentile( double percentile )
+	{
+		final long n = count.get();
+		if ( n == 0 )
+		{
+			return 0L;
+		}
+		final long rank = Math.max(1L, (long) Math.ceil(n * percentile / 100.0d));
+		long seen = 0L;
+		for ( int i = 0 ; i < BUCKETS ; ++i )
+		{
+			seen += buckets.get(i);
+			if ( seen >= rank )
+			{
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+	
+	/**
+	 * @return count, total, mean, p50, p95, p99 and max. Times in 
+	 * milliseconds.
+	 */
+	public Map<String, Object> toMap()
+	{
+		final Map<String, Object> map = new LinkedHashMap<String, Object>();
+		final long n = getCount();
+		map.put("count", n);
+		map.put("total", millis(getTotal()));
+		map.put("mean", n == 0 ? 0.0d : millis(getTotal() / n));
+		map.put("p50", millis(getPercentile(50)));
+		map.put("p95", millis(getPercentile(95)));
+		map.put("p99", millis(getPercentile(99)));
+		map.put("max", millis(getMax()));
+		return map;
+	}
+	
+	private static double millis( long nanos )
+	{
+		return Math.round(nanos / 1000.0d) / 1000.0d;
+	}
+	
+	static int bucket( long value )
+	{
+		if ( value < SUB_BUCKETS )
+		{
+			return (int) value;
+		}
+		final int msb = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) ((value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+	
+	static long upperBound( int bucket )
+	{
+		if ( bucket < SUB_BUCKETS )
+		{
+			return bucket;
+		}
+		final int msb = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final int sub = bucket % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << (msb - SUB_BUCKET_BITS)) - 1;
+	}
+	
+}
@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+/**
+ * <p>Writes the suite-wide WebDriver command timings of 
+ * {@link CommandMetrics} to a JSON file at the end of each suite, so that 
+ * CI can track them. Each command has its count, total, mean, p50, p95, 
+ * p99 and max, in milliseconds.</p>
+ * 
+ * <p>The histograms are reset when a suite starts, and each suite has its 
+ * own file: the suite name is added to selenium.driver.instrument.file, 
+ * e.g. target/webdriver-timings-Suite.json. Suites running in parallel 
+ * share the histograms.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TimingsListener 
+implements ISuiteListener
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( TimingsListener.class );
+	
+	/* (non-Javadoc)
+	 * @see org.testng.ISuiteListener#onStart(org.testng.ISuite)
+	 */
+	public void onStart( ISuite suite )
+	{
+		final CommandMetrics metrics = CommandMetrics.getInstance();
+		if ( metrics != null )
+		{
+			metrics.resetSuite();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.testng.ISuiteListener#onFinish(org.testng.ISuite)
+	 */
+	public void onFinish( ISuite suite )
+	{
+		final CommandMetrics metrics = CommandMetrics.getInstance();
+		if ( metrics == null || metrics.getReportFile() == null )
+		{
+			return;
+		}
+		final File file = getReportFile(metrics.getReportFile(), suite.getName());
+		try
+		{
+			FileUtils.writeStringToFile(file, toJson(suite.getName(), metrics.getSuiteHistograms()), "UTF-8");
+			LOGGER.info("WebDriver command timings written to " + file.getAbsolutePath());
+		}
+		catch ( IOException ioe )
+		{
+			LOGGER.warn("Failed to write WebDriver command timings to " + file + ": " + ioe.getMessage(), ioe);
+		}
+	}
+	
+	/**
+	 * @param reportFile path of the report, selenium.driver.instrument.file.
+	 * @param suite suite name.
+	 * @return the report file of the suite, with the suite name before the 
+	 * extension of the file name.
+	 */
+	public static File getReportFile( String reportFile, String suite )
+	{
+		final File file = new File(reportFile);
+		final String name = file.getName();
+		final String suffix = "-" + (suite == null ? "" : suite).replaceAll("[^A-Za-z0-9._-]", "_");
+		final int dot = name.lastIndexOf('.');
+		final String suiteName = dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+		return new File(file.getParentFile(), suiteName);
+	}
+	
+	/**
+	 * @param suite suite name.
+	 * @param histograms histograms by command.
+	 * @return JSON document with the histograms.
+	 */
+	public static String toJson( String suite, Map<String, LatencyHistogram> histograms )
+	{
+		final StringBuilder json = new StringBuilder();
+		json.append("{\n  \"suite\": \"").append(escape(suite)).append("\",\n");
+		json.append("  \"unit\": \"ms\",\n");
+		json.append("  \"commands\": {");
+		boolean first = true;
+		for ( Map.Entry<String, LatencyHistogram> entry : histograms.entrySet() )
+		{
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    \"").append(escape(entry.getKey())).append("\": {");
+			boolean firstField = true;
+			for ( Map.Entry<String, Object> field : entry.getValue().toMap().entrySet() )
+			{
+				json.append(firstField ? " " : ", ");
+				firstField = false;
+				json.append('"').append(field.getKey()).append("\": ").append(field.getValue());
+			}
+			json.append(" }");
+		}
+		json.append(first ? "}\n}\n" : "\n  }\n}\n");
+		return json.toString();
+	}
+	
+	private static String escape( String value )
+	{
+		final StringBuilder escaped = new StringBuilder();
+		for ( int i = 0 ; value != null && i < value.length() ; ++i )
+		{
+			final char c = value.charAt(i);
+			if ( c == '"' || c == '\\' )
+			{
+				escaped.append('\\').append(c);
+			}
+			else if ( c < 0x20 )
+			{
+				escaped.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+}
@@ -23,6 +23,7 @@
  */
 package br.eti.kinoshita.selenium.model;
 
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.Serializable;
 
@@ -45,6 +46,8 @@ public class SeleniumScreenshot implements Serializable
 	private String description;
 	private String fileType;
 	private String title;
+	private Rectangle region;
+	private double scale = 1.0d;
 
 	public SeleniumScreenshot()
 	{
@@ -114,4 +117,32 @@ public class SeleniumScreenshot implements Serializable
 		this.title = title;
 	}
 
+	/**
+	 * @return the region of the page captured, in page coordinates, or 
+	 * <code>null</code> for a full-page screen shot.
+	 */
+	public Rectangle getRegion()
+	{
+		return region;
+	}
+
+	public void setRegion( Rectangle region )
+	{
+		this.region = region;
+	}
+
+	/**
+	 * @return the factor by which the captured region was scaled. 1.0 
+	 * means the original size.
+	 */
+	public double getScale()
+	{
+		return scale;
+	}
+
+	public void setScale( double scale )
+	{
+		this.scale = scale;
+	}
+
 }
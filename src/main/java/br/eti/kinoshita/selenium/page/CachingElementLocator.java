@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.page;
+
+import java.util.List;
+
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+
+/**
+ * <p>Remembers the element, and the list of elements, found by another 
+ * locator, until {@link #invalidate()} is called. Used for the cached 
+ * fields of pages by {@link PageMetadata}, whose proxies invalidate it 
+ * when the element becomes stale.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class CachingElementLocator 
+implements ElementLocator
+{
+
+	private final ElementLocator delegate;
+	
+	private volatile WebElement element;
+	
+	private volatile List<WebElement> elements;
+	
+	/**
+	 * @param delegate the locator that finds the elements.
+	 */
+	public CachingElementLocator( ElementLocator delegate )
+	{
+		this.delegate = delegate;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openqa.selenium.support.pagefactory.ElementLocator#findElement()
+	 */
+	public WebElement findElement()
+	{
+		WebElement cached = element;
+		if ( cached == null )
+		{
+			cached = delegate.findElement();
+			element = cached;
+		}
+		return cached;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openqa.selenium.support.pagefactory.ElementLocator#findElements()
+	 */
+	public List<WebElement> findElements()
+	{
+		List<WebElement> cached = elements;
+		if ( cached == null )
+		{
+			cached = delegate.findElements();
+			elements = cached;
+		}
+		return cached;
+	}
+	
+	/**
+	 * Forgets the cached elements, so the next call finds them again.
+	 */
+	public void invalidate()
+	{
+		element = null;
+		elements = null;
+	}
+	
+}
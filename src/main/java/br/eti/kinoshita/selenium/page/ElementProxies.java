@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.page;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.Locatable;
+import org.openqa.selenium.internal.WrapsElement;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Creates the element and list proxies of page fields. Each call on a 
+ * proxy finds the element with its locator, and if the element is stale, 
+ * invalidates the locator (when it caches) and repeats the call once.</p>
+ * 
+ * <p>Lists of fields that are not cached are found again on each call, 
+ * and the elements returned are the ones found by the driver, as in 
+ * PageFactory. Only cached lists return element proxies, that look up 
+ * the list again when stale.</p>
+ * 
+ * <p>The proxy classes are created once, and only their constructors are 
+ * called for each field.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+final class ElementProxies
+{
+
+	private static final Class<?>[] ELEMENT_INTERFACES = { WebElement.class, WrapsElement.class, Locatable.class };
+	
+	private static final Constructor<?> ELEMENT_PROXY = proxyConstructor(ELEMENT_INTERFACES);
+	
+	private static final Constructor<?> LIST_PROXY = proxyConstructor(new Class<?>[] { List.class });
+	
+	private ElementProxies()
+	{
+	}
+	
+	/**
+	 * @param locator locator of the element.
+	 * @return a proxy of the element.
+	 */
+	static WebElement element( ElementLocator locator )
+	{
+		return (WebElement) newProxy(ELEMENT_PROXY, new ElementHandler(locator, -1));
+	}
+	
+	/**
+	 * @param locator locator of the elements.
+	 * @return a proxy of the list of elements.
+	 */
+	@SuppressWarnings("unchecked")
+	static List<WebElement> list( ElementLocator locator )
+	{
+		return (List<WebElement>) newProxy(LIST_PROXY, new ListHandler(locator));
+	}
+	
+	private static Constructor<?> proxyConstructor( Class<?>[] interfaces )
+	{
+		try
+		{
+			return Proxy.getProxyClass(ElementProxies.class.getClassLoader(), interfaces)
+				.getConstructor(new Class<?>[] { InvocationHandler.class });
+		}
+		catch ( NoSuchMethodException nsme )
+		{
+			throw new SeleniumWebTestException("Failed to create element proxy class", nsme);
+		}
+	}
+	
+	private static Object newProxy( Constructor<?> constructor, InvocationHandler handler )
+	{
+		try
+		{
+			return constructor.newInstance(new Object[] { handler });
+		}
+		catch ( Exception e )
+		{
+			throw new SeleniumWebTestException("Failed to create element proxy", e);
+		}
+	}
+	
+	private static boolean isCaching( ElementLocator locator )
+	{
+		return locator instanceof CachingElementLocator;
+	}
+	
+	private static void invalidate( ElementLocator locator )
+	{
+		if ( locator instanceof CachingElementLocator )
+		{
+			((CachingElementLocator) locator).invalidate();
+		}
+	}
+	
+	/*
+	 * Calls the element, looking it up again once if it is stale. An index 
+	 * of -1 means the element of the field, other indexes an element of 
+	 * the list of the field.
+	 */
+	private static final class ElementHandler 
+	implements InvocationHandler
+	{
+		private final ElementLocator locator;
+		private final int index;
+		
+		private ElementHandler( ElementLocator locator, int index )
+		{
+			this.locator = locator;
+			this.index = index;
+		}
+		
+		public Object invoke( Object proxy, Method method, Object[] args )
+		throws Throwable
+		{
+			if ( "getWrappedElement".equals(method.getName()) && method.getParameterTypes().length == 0 )
+			{
+				return element();
+			}
+			try
+			{
+				return call(method, args);
+			}
+			catch ( StaleElementReferenceException sere )
+			{
+				invalidate(locator);
+				return call(method, args);
+			}
+		}
+		
+		private WebElement element()
+		{
+			if ( index < 0 )
+			{
+				return locator.findElement();
+			}
+			final List<WebElement> elements = locator.findElements();
+			if ( index >= elements.size() )
+			{
+				// the list shrank since the proxy was created
+				throw new StaleElementReferenceException("Element " + index + " is no longer in the list of " + elements.size() + " elements");
+			}
+			return elements.get(index);
+		}
+		
+		private Object call( Method method, Object[] args )
+		throws Throwable
+		{
+			try
+			{
+				return method.invoke(element(), args);
+			}
+			catch ( InvocationTargetException ite )
+			{
+				throw ite.getCause();
+			}
+		}
+	}
+	
+	/*
+	 * The list found by the locator. For cached lists, a list whose elements 
+	 * are proxies that look up the list again when stale.
+	 */
+	private static final class ListHandler 
+	implements InvocationHandler
+	{
+		private final ElementLocator locator;
+		
+		private ListHandler( ElementLocator locator )
+		{
+			this.locator = locator;
+		}
+		
+		public Object invoke( Object proxy, Method method, Object[] args )
+		throws Throwable
+		{
+			final List<WebElement> elements = locator.findElements();
+			final List<WebElement> target;
+			if ( isCaching(locator) )
+			{
+				target = new ArrayList<WebElement>(elements.size());
+				for ( int i = 0 ; i < elements.size() ; ++i )
+				{
+					target.add((WebElement) newProxy(ELEMENT_PROXY, new ElementHandler(locator, i)));
+				}
+			}
+			else
+			{
+				target = elements;
+			}
+			try
+			{
+				return method.invoke(target, args);
+			}
+			catch ( InvocationTargetException ite )
+			{
+				throw ite.getCause();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.page;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.FindBy;
+import org.openqa.selenium.support.FindBys;
+import org.openqa.selenium.support.pagefactory.Annotations;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>The page fields of a page class, with their locators, reflected once 
+ * per class and kept in a concurrent cache. Creating another instance of 
+ * the page only binds the prebuilt locators to the driver, without 
+ * reflecting over the fields and annotations again, as 
+ * PageFactory.initElements does.</p>
+ * 
+ * <p>As in PageFactory, WebElement fields and List&lt;WebElement&gt; fields 
+ * annotated with FindBy or FindBys are initialized, in the class and its 
+ * superclasses. Fields marked with {@link CacheElement} or CacheLookup 
+ * find their elements once per page instance. A {@link CacheElement} on a 
+ * class applies to all the fields of the page, including the ones 
+ * inherited from its superclasses, unless a field is marked itself.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class PageMetadata
+{
+
+	private static final ConcurrentMap<Class<?>, PageMetadata> CACHE = new ConcurrentHashMap<Class<?>, PageMetadata>();
+	
+	private final List<PageField> fields;
+	
+	private PageMetadata( Class<?> pageClass )
+	{
+		final List<PageField> found = new ArrayList<PageField>();
+		for ( Class<?> c = pageClass ; c != null && c != Object.class ; c = c.getSuperclass() )
+		{
+			for ( Field field : c.getDeclaredFields() )
+			{
+				if ( Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()) )
+				{
+					continue;
+				}
+				final boolean list = isElementList(field);
+				if ( ! list && ! WebElement.class.equals(field.getType()) )
+				{
+					continue;
+				}
+				final Annotations annotations = new Annotations(field);
+				field.setAccessible(true);
+				found.add(new PageField(field, annotations.buildBy(), list, 
+						annotations.isLookupCached() || isCacheElement(field, pageClass)));
+			}
+		}
+		this.fields = Collections.unmodifiableList(found);
+	}
+	
+	/**
+	 * @param pageClass page class.
+	 * @return the metadata of the class, reflected on the first call only.
+	 */
+	public static PageMetadata forClass( Class<?> pageClass )
+	{
+		PageMetadata metadata = CACHE.get(pageClass);
+		if ( metadata == null )
+		{
+			final PageMetadata created = new PageMetadata(pageClass);
+			metadata = CACHE.putIfAbsent(pageClass, created);
+			if ( metadata == null )
+			{
+				metadata = created;
+			}
+		}
+		return metadata;
+	}
+	
+	/**
+	 * @return number of page fields.
+	 */
+	public int size()
+	{
+		return fields.size();
+	}
+	
+	/**
+	 * Sets the page fields of a page instance with element proxies.
+	 * 
+	 * @param page page instance.
+	 * @param searchContext where elements are searched, usually the driver.
+	 * @param timeOutInSeconds how long to wait for elements.
+	 * @throws SeleniumWebTestException if a field cannot be set.
+	 */
+	public void initElements( Object page, SearchContext searchContext, int timeOutInSeconds )
+	throws SeleniumWebTestException
+	{
+		for ( PageField pageField : fields )
+		{
+			ElementLocator locator = new WaitingElementLocator(searchContext, pageField.by, timeOutInSeconds);
+			if ( pageField.cached )
+			{
+				locator = new CachingElementLocator(locator);
+			}
+			try
+			{
+				pageField.field.set(page, pageField.list ? ElementProxies.list(locator) : ElementProxies.element(locator));
+			}
+			catch ( IllegalAccessException iae )
+			{
+				throw new SeleniumWebTestException("Failed to set page field " + pageField.field, iae);
+			}
+		}
+	}
+	
+	/**
+	 * @param field page field.
+	 * @param pageClass the page class, which declares or inherits the field.
+	 * @return <code>true</code> if the field is marked with 
+	 * {@link CacheElement}, or else if the page class, or the nearest 
+	 * superclass marked with it, is.
+	 */
+	private static boolean isCacheElement( Field field, Class<?> pageClass )
+	{
+		final CacheElement onField = field.getAnnotation(CacheElement.class);
+		if ( onField != null )
+		{
+			return onField.value();
+		}
+		for ( Class<?> c = pageClass ; c != null && c != Object.class ; c = c.getSuperclass() )
+		{
+			final CacheElement onClass = c.getAnnotation(CacheElement.class);
+			if ( onClass != null )
+			{
+				return onClass.value();
+			}
+		}
+		return false;
+	}
+	
+	private static boolean isElementList( Field field )
+	{
+		if ( ! List.class.equals(field.getType()) )
+		{
+			return false;
+		}
+		if ( field.getAnnotation(FindBy.class) == null && field.getAnnotation(FindBys.class) == null )
+		{
+			return false;
+		}
+		final Type type = field.getGenericType();
+		return type instanceof ParameterizedType 
+				&& WebElement.class.equals(((ParameterizedType) type).getActualTypeArguments()[0]);
+	}
+	
+	/*
+	 * A page field and its prebuilt locator.
+	 */
+	private static final class PageField
+	{
+		private final Field field;
+		private final By by;
+		private final boolean list;
+		private final boolean cached;
+		
+		private PageField( Field field, By by, boolean list, boolean cached )
+		{
+			this.field = field;
+			this.by = by;
+			this.list = list;
+			this.cached = cached;
+		}
+	}
+	
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.page;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+
+import br.eti.kinoshita.selenium.util.Backoff;
+import br.eti.kinoshita.selenium.util.Condition;
+import br.eti.kinoshita.selenium.util.Poller;
+
+/**
+ * <p>Finds elements with a prebuilt By, waiting up to a timeout for them 
+ * to appear, like Selenium's AjaxElementLocator. The By is built once per 
+ * page class by {@link PageMetadata}, instead of once per page instance.</p>
+ * 
+ * <p>Elements are found on every call. Cached fields (CacheElement or 
+ * CacheLookup) wrap this locator in a {@link CachingElementLocator}.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class WaitingElementLocator 
+implements ElementLocator
+{
+
+	/**
+	 * Same interval AjaxElementLocator sleeps between attempts.
+	 */
+	private static final Backoff BACKOFF = Backoff.fixed(250L);
+	
+	private final SearchContext searchContext;
+	private final By by;
+	private final long timeOutInSeconds;
+	
+	/**
+	 * @param searchContext where elements are searched, usually the driver.
+	 * @param by element locator.
+	 * @param timeOutInSeconds how long to wait for the element.
+	 */
+	public WaitingElementLocator( SearchContext searchContext, By by, long timeOutInSeconds )
+	{
+		this.searchContext = searchContext;
+		this.by = by;
+		this.timeOutInSeconds = timeOutInSeconds;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openqa.selenium.support.pagefactory.ElementLocator#findElement()
+	 */
+	public WebElement findElement()
+	{
+		final WebElement found = new Poller(BACKOFF).ignoring(NoSuchElementException.class).until(new Condition<WebElement>()
+		{
+			public WebElement evaluate()
+			{
+				return searchContext.findElement(by);
+			}
+		}, timeOutInSeconds, TimeUnit.SECONDS);
+		if ( found == null )
+		{
+			throw new NoSuchElementException("Timed out after " + timeOutInSeconds + " seconds. Unable to locate the element: " + by);
+		}
+		return found;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.openqa.selenium.support.pagefactory.ElementLocator#findElements()
+	 */
+	public List<WebElement> findElements()
+	{
+		final List<WebElement> found = new Poller(BACKOFF).<List<WebElement>>until(new Condition<List<WebElement>>()
+		{
+			public List<WebElement> evaluate()
+			{
+				final List<WebElement> list = searchContext.findElements(by);
+				return list.isEmpty() ? null : list;
+			}
+		}, timeOutInSeconds, TimeUnit.SECONDS);
+		if ( found == null )
+		{
+			return new ArrayList<WebElement>();
+		}
+		return found;
+	}
+	
+}
@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.tap4j.ext.testng.TAPAttribute;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+import org.testng.Reporter;
+
+import br.eti.kinoshita.selenium.util.TapContextAttributes;
+
+/**
+ * <p>Keeps the attachments (screen shots) of each test invocation, i.e. a 
+ * test method, with its parameters, running in a thread. Concurrent 
+ * methods and data-driven rows do not overwrite each other's 
+ * attachments, as it used to happen with a single "Files" attribute in 
+ * the test context.</p>
+ * 
+ * <p>Adding attachments does not lock: the registry is a concurrent map 
+ * of concurrent queues. When an invocation finishes, 
+ * {@link #publish(ITestResult)} moves its attachments into a "Files" 
+ * TAPAttribute of the test result, and into the "Files" TAPAttribute of 
+ * the test context, read by TestTAPReporter. The context attribute has 
+ * one map per method, with the attachments of each invocation under the 
+ * invocation key (see {@link TapContextAttributes}).</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class AttachmentRegistry
+{
+
+	/**
+	 * Name of the TAP attribute with the attachments.
+	 */
+	public static final String FILES_ATTRIBUTE = "Files";
+	
+	private static final AttachmentRegistry INSTANCE = new AttachmentRegistry();
+	
+	private final ConcurrentMap<Invocation, ConcurrentLinkedQueue<Attachment>> attachments = 
+			new ConcurrentHashMap<Invocation, ConcurrentLinkedQueue<Attachment>>();
+	
+	/**
+	 * @return the registry used by the tests.
+	 */
+	public static AttachmentRegistry getInstance()
+	{
+		return INSTANCE;
+	}
+	
+	/**
+	 * Adds an attachment to an invocation.
+	 * 
+	 * @param invocation test invocation.
+	 * @param key attachment key, usually the file path.
+	 * @param attachment YAMLish attachment map.
+	 */
+	public void add( Invocation invocation, String key, Map<String, Object> attachment )
+	{
+		ConcurrentLinkedQueue<Attachment> queue = attachments.get(invocation);
+		if ( queue == null )
+		{
+			final ConcurrentLinkedQueue<Attachment> created = new ConcurrentLinkedQueue<Attachment>();
+			queue = attachments.putIfAbsent(invocation, created);
+			if ( queue == null )
+			{
+				queue = created;
+			}
+		}
+		queue.add(new Attachment(key, attachment));
+	}
+	
+	/**
+	 * @param invocation test invocation.
+	 * @return the attachments of the invocation, in the order they were 
+	 * added.
+	 */
+	public Map<String, Object> getAttachments( Invocation invocation )
+	{
+		final Map<String, Object> files = new LinkedHashMap<String, Object>();
+		final ConcurrentLinkedQueue<Attachment> queue = attachments.get(invocation);
+		if ( queue != null )
+		{
+			for ( Attachment attachment : queue )
+			{
+				files.put(attachment.key, attachment.value);
+			}
+		}
+		return files;
+	}
+	
+	/**
+	 * Removes and returns the attachments of an invocation.
+	 * 
+	 * @param invocation test invocation.
+	 * @return the attachments, in the order they were added.
+	 */
+	public Map<String, Object> remove( Invocation invocation )
+	{
+		final Map<String, Object> files = new LinkedHashMap<String, Object>();
+		final ConcurrentLinkedQueue<Attachment> queue = attachments.remove(invocation);
+		if ( queue != null )
+		{
+			for ( Attachment attachment : queue )
+			{
+				files.put(attachment.key, attachment.value);
+			}
+		}
+		return files;
+	}
+	
+	/**
+	 * Publishes the attachments of the invocation of a test result, in the 
+	 * current thread, to the test result and to its test context. It must 
+	 * be called in the thread that ran the test method. It may be called 
+	 * more than once, the attachments are merged.
+	 * 
+	 * @param result test result.
+	 */
+	@SuppressWarnings("unchecked")
+	public void publish( ITestResult result )
+	{
+		final Method method = result.getMethod().getMethod();
+		final Invocation invocation = Invocation.of(result);
+		final Map<String, Object> files = remove(invocation);
+		// attachments added where the parameters were not known
+		final Invocation unparameterized = new Invocation(method, null);
+		if ( ! unparameterized.equals(invocation) )
+		{
+			files.putAll(remove(unparameterized));
+		}
+		if ( files.isEmpty() )
+		{
+			return;
+		}
+		final Object published = result.getAttribute(FILES_ATTRIBUTE);
+		if ( published instanceof TAPAttribute )
+		{
+			final Map<String, Object> merged = new LinkedHashMap<String, Object>((Map<String, Object>) ((TAPAttribute)published).getValue());
+			merged.putAll(files);
+			result.setAttribute(FILES_ATTRIBUTE, new TAPAttribute(method, merged));
+		}
+		else
+		{
+			result.setAttribute(FILES_ATTRIBUTE, new TAPAttribute(method, files));
+		}
+		final ITestContext context = result.getTestContext();
+		if ( context != null )
+		{
+			TapContextAttributes.merge(context, FILES_ATTRIBUTE, method, TapContextAttributes.invocationKey(result), files);
+		}
+	}
+	
+	/**
+	 * @return the number of invocations with attachments not published yet.
+	 */
+	public int size()
+	{
+		return attachments.size();
+	}
+	
+	/**
+	 * A test method, with its parameters, running in a thread.
+	 */
+	public static final class Invocation
+	{
+		private final Method method;
+		private final List<Object> parameters;
+		private final long threadId;
+		
+		/**
+		 * Creates an invocation in the current thread.
+		 * 
+		 * @param method test method.
+		 * @param parameters test parameters, may be <code>null</code>.
+		 */
+		public Invocation( Method method, Object[] parameters )
+		{
+			this.method = method;
+			this.parameters = parameters == null || parameters.length == 0 ? 
+					Collections.<Object>emptyList() : Arrays.asList(parameters.clone());
+			this.threadId = Thread.currentThread().getId();
+		}
+		
+		/**
+		 * @param result test result.
+		 * @return the invocation of the test result, in the current thread.
+		 */
+		public static Invocation of( ITestResult result )
+		{
+			return new Invocation(result.getMethod().getMethod(), result.getParameters());
+		}
+		
+		/**
+		 * Creates the invocation of a method in the current thread. The 
+		 * parameters are taken from the TestNG Reporter, when it is running 
+		 * the method.
+		 * 
+		 * @param method test method.
+		 * @return the invocation.
+		 */
+		public static Invocation current( Method method )
+		{
+			final ITestResult result = Reporter.getCurrentTestResult();
+			if ( result != null && result.getMethod() != null && method.equals(result.getMethod().getMethod()) )
+			{
+				return of(result);
+			}
+			return new Invocation(method, null);
+		}
+		
+		/**
+		 * @return the test method.
+		 */
+		public Method getMethod()
+		{
+			return method;
+		}
+		
+		/**
+		 * @return the test parameters, empty if none.
+		 */
+		public List<Object> getParameters()
+		{
+			return parameters;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		public int hashCode()
+		{
+			int hash = method.hashCode();
+			hash = 31 * hash + parameters.hashCode();
+			return 31 * hash + (int) (threadId ^ (threadId >>> 32));
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		public boolean equals( Object obj )
+		{
+			if ( this == obj )
+			{
+				return true;
+			}
+			if ( ! (obj instanceof Invocation) )
+			{
+				return false;
+			}
+			final Invocation other = (Invocation) obj;
+			return threadId == other.threadId && method.equals(other.method) && parameters.equals(other.parameters);
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString()
+		{
+			return method.getName() + parameters + "@" + threadId;
+		}
+	}
+	
+	/*
+	 * An attachment and its key.
+	 */
+	private static final class Attachment
+	{
+		private final String key;
+		private final Map<String, Object> value;
+		
+		private Attachment( String key, Map<String, Object> value )
+		{
+			this.key = key;
+			this.value = value;
+		}
+	}
+	
+}
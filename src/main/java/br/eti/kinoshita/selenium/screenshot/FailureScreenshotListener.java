@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+
+import br.eti.kinoshita.selenium.SeleniumWebTest;
+
+/**
+ * <p>Persists the screen shots kept in the {@link ScreenshotBuffer} when a 
+ * test fails or is skipped, and attaches them to the test result. For 
+ * tests that pass, the frames are simply discarded.</p>
+ * 
+ * <p>It is registered next to TestTAPReporter in {@link SeleniumWebTest}, 
+ * and does nothing unless selenium.screenshot.failure.enabled is set. The 
+ * frames are attached as any other screen shot, so they may be inlined or 
+ * referenced (selenium.screenshot.mode).</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class FailureScreenshotListener 
+implements ITestListener
+{
+
+	/* (non-Javadoc)
+	 * @see org.testng.ITestListener#onTestStart(org.testng.ITestResult)
+	 */
+	public void onTestStart( ITestResult result )
+	{
+		discard();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.testng.ITestListener#onTestSuccess(org.testng.ITestResult)
+	 */
+	public void onTestSuccess( ITestResult result )
+	{
+		discard();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.testng.ITestListener#onTestFailure(org.testng.ITestResult)
+	 */
+	public void onTestFailure( ITestResult result )
+	{
+		persist(result);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.testng.ITestListener#onTestSkipped(org.testng.ITestResult)
+	 */
+	public void onTestSkipped( ITestResult result )
+	{
+		persist(result);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.testng.ITestListener#onTestFailedButWithinSuccessPercentage(org.testng.ITestResult)
+	 */
+	public void onTestFailedButWithinSuccessPercentage( ITestResult result )
+	{
+		persist(result);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.testng.ITestListener#onStart(org.testng.ITestContext)
+	 */
+	public void onStart( ITestContext context )
+	{
+	}
+
+	/* (non-Javadoc)
+	 * @see org.testng.ITestListener#onFinish(org.testng.ITestContext)
+	 */
+	public void onFinish( ITestContext context )
+	{
+	}
+	
+	private void discard()
+	{
+		final ScreenshotBuffer buffer = ScreenshotBuffer.getInstance();
+		if ( buffer != null )
+		{
+			buffer.clear();
+		}
+	}
+	
+	private void persist( ITestResult result )
+	{
+		if ( ScreenshotBuffer.getInstance() == null )
+		{
+			return;
+		}
+		final Object instance = result.getInstance();
+		if ( instance instanceof SeleniumWebTest )
+		{
+			((SeleniumWebTest) instance).addBufferedScreenShots(result);
+		}
+		else
+		{
+			discard();
+		}
+	}
+
+}
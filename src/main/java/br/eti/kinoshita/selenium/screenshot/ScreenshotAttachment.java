@@ -0,0 +1,404 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.ObjectUtils;
+
+import br.eti.kinoshita.selenium.model.SeleniumScreenshot;
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>The YAMLish map of a screen shot attached to a TAP Stream. The keys 
+ * are the ones that TestTAPReporter and the Jenkins TestLink Plug-in 
+ * expect: File-Location, File-Title, File-Description, File-Size, 
+ * File-Name, File-Content and File-Type. Screen shots of a region of the 
+ * page have a File-Region too.</p>
+ * 
+ * <p>Unlike the map created by SeleniumWebTest in the inline mode, this 
+ * one holds only a reference to the file, and encodes it in Base64, in 
+ * fixed-size chunks, each time File-Content is read, i.e. when the TAP 
+ * Stream is written. The encoded content is not kept, so the memory used 
+ * by an attachment while the tests run does not depend on the file size. 
+ * The tap4j YAML writer needs File-Content as a String, though, so the 
+ * whole encoded file is in memory while its attachment is written, one 
+ * attachment at a time. {@link #hashCode()}, {@link #equals(Object)} and 
+ * {@link #toString()} never read the content.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ScreenshotAttachment 
+extends AbstractMap<String, Object>
+{
+
+	public static final String FILE_LOCATION = "File-Location";
+	public static final String FILE_TITLE = "File-Title";
+	public static final String FILE_DESCRIPTION = "File-Description";
+	public static final String FILE_SIZE = "File-Size";
+	public static final String FILE_NAME = "File-Name";
+	public static final String FILE_CONTENT = "File-Content";
+	public static final String FILE_TYPE = "File-Type";
+	public static final String FILE_REGION = "File-Region";
+	
+	private static final String[] KEYS = { 
+		FILE_LOCATION, FILE_TITLE, FILE_DESCRIPTION, FILE_SIZE, FILE_NAME, FILE_CONTENT, FILE_TYPE 
+	};
+	
+	private static final String[] REGION_KEYS = { 
+		FILE_LOCATION, FILE_TITLE, FILE_DESCRIPTION, FILE_SIZE, FILE_NAME, FILE_CONTENT, FILE_TYPE, FILE_REGION 
+	};
+	
+	/*
+	 * A multiple of 3, so that the chunks are encoded without padding.
+	 */
+	private static final int CHUNK_SIZE = 48 * 1024;
+	
+	private final File file;
+	private final String title;
+	private final String description;
+	private final String fileType;
+	private final Map<String, Object> region;
+	private final String[] keys;
+	
+	private ScreenshotAttachment( File file, SeleniumScreenshot screenshot )
+	{
+		this.file = file;
+		this.title = screenshot.getTitle();
+		this.description = screenshot.getDescription();
+		this.fileType = screenshot.getFileType();
+		this.region = ScreenshotCropper.toRegionMap(screenshot);
+		this.keys = region == null ? KEYS : REGION_KEYS;
+	}
+	
+	/**
+	 * Creates an attachment that refers to the screen shot file, and only 
+	 * encodes it when its content is read. The file must not be removed 
+	 * before the TAP Stream is written.
+	 * 
+	 * @param screenshot screen shot.
+	 * @return the attachment.
+	 */
+	public static ScreenshotAttachment reference( SeleniumScreenshot screenshot )
+	{
+		return new ScreenshotAttachment(screenshot.getFile(), screenshot);
+	}
+	
+	/**
+	 * Moves a screen shot file into a spool directory, where it stays 
+	 * until the TAP Stream is written. WebDriver screen shots are temporary 
+	 * files.
+	 * 
+	 * @param file screen shot file.
+	 * @param spoolDirectory spool directory.
+	 * @return the spooled file.
+	 * @throws SeleniumWebTestException
+	 */
+	public static File spool( File file, File spoolDirectory )
+	throws SeleniumWebTestException
+	{
+		try
+		{
+			final File spooled = new File(spoolDirectory, file.getName());
+			if ( ! spooled.equals(file) )
+			{
+				FileUtils.moveFile(file, spooled);
+			}
+			return spooled;
+		}
+		catch ( IOException ioe )
+		{
+			throw new SeleniumWebTestException("Failed to spool screen shot " + file, ioe);
+		}
+	}
+	
+	/**
+	 * @return the screen shot file.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+	
+	/**
+	 * Encodes the file in Base64, reading and encoding it in fixed-size 
+	 * chunks. Only the returned String grows with the file size.
+	 * 
+	 * @return the encoded content.
+	 * @throws SeleniumWebTestException if the file cannot be read.
+	 */
+	public String encodeContent()
+	throws SeleniumWebTestException
+	{
+		final long length = file.length();
+		final StringBuilder encoded = new StringBuilder((int) Math.min(Integer.MAX_VALUE, 4 * ((length + 2) / 3)));
+		InputStream input = null;
+		try
+		{
+			input = new FileInputStream(file);
+			final byte[] chunk = new byte[CHUNK_SIZE];
+			int read;
+			while ( (read = fill(input, chunk)) > 0 )
+			{
+				byte[] data = chunk;
+				if ( read < chunk.length )
+				{
+					data = new byte[read];
+					System.arraycopy(chunk, 0, data, 0, read);
+				}
+				encoded.append(toAscii(Base64.encodeBase64(data)));
+			}
+			return encoded.toString();
+		}
+		catch ( IOException ioe )
+		{
+			throw new SeleniumWebTestException("Failed to encode screen shot " + file, ioe);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+	}
+	
+	/*
+	 * Reads until the buffer is full or the stream ends, so that only the 
+	 * last chunk may need padding.
+	 */
+	private static int fill( InputStream input, byte[] buffer )
+	throws IOException
+	{
+		int total = 0;
+		while ( total < buffer.length )
+		{
+			final int read = input.read(buffer, total, buffer.length - total);
+			if ( read == -1 )
+			{
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+	
+	private static String toAscii( byte[] encoded )
+	{
+		try
+		{
+			return new String(encoded, "US-ASCII");
+		}
+		catch ( UnsupportedEncodingException uee )
+		{
+			throw new SeleniumWebTestException("US-ASCII is not supported", uee);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#hashCode()
+	 */
+	public int hashCode()
+	{
+		int hash = file.hashCode();
+		hash = 31 * hash + ObjectUtils.hashCode(title);
+		hash = 31 * hash + ObjectUtils.hashCode(description);
+		return 31 * hash + ObjectUtils.hashCode(fileType);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#equals(java.lang.Object)
+	 */
+	public boolean equals( Object obj )
+	{
+		if ( this == obj )
+		{
+			return true;
+		}
+		if ( ! (obj instanceof ScreenshotAttachment) )
+		{
+			return false;
+		}
+		final ScreenshotAttachment other = (ScreenshotAttachment) obj;
+		return file.equals(other.file) && 
+				ObjectUtils.equals(title, other.title) && 
+				ObjectUtils.equals(description, other.description) && 
+				ObjectUtils.equals(fileType, other.fileType) && 
+				ObjectUtils.equals(region, other.region);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#toString()
+	 */
+	public String toString()
+	{
+		return "ScreenshotAttachment[" + file.getAbsolutePath() + ", " + title + ", " + fileType + "]";
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	public Object get( Object key )
+	{
+		if ( FILE_LOCATION.equals(key) )
+		{
+			return file.getAbsolutePath();
+		}
+		else if ( FILE_TITLE.equals(key) )
+		{
+			return title;
+		}
+		else if ( FILE_DESCRIPTION.equals(key) )
+		{
+			return description;
+		}
+		else if ( FILE_SIZE.equals(key) )
+		{
+			return file.length();
+		}
+		else if ( FILE_NAME.equals(key) )
+		{
+			return file.getName();
+		}
+		else if ( FILE_CONTENT.equals(key) )
+		{
+			return encodeContent();
+		}
+		else if ( FILE_TYPE.equals(key) )
+		{
+			return fileType;
+		}
+		else if ( FILE_REGION.equals(key) )
+		{
+			return region;
+		}
+		return null;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	public boolean containsKey( Object key )
+	{
+		for ( String k : keys )
+		{
+			if ( k.equals(key) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#size()
+	 */
+	public int size()
+	{
+		return keys.length;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	public Set<Map.Entry<String, Object>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, Object>>()
+		{
+			public Iterator<Map.Entry<String, Object>> iterator()
+			{
+				return new Iterator<Map.Entry<String, Object>>()
+				{
+					private int index = 0;
+					
+					public boolean hasNext()
+					{
+						return index < keys.length;
+					}
+					
+					public Map.Entry<String, Object> next()
+					{
+						if ( ! hasNext() )
+						{
+							throw new NoSuchElementException();
+						}
+						return new LazyEntry(keys[index++]);
+					}
+					
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			
+			public int size()
+			{
+				return keys.length;
+			}
+		};
+	}
+	
+	/*
+	 * Entry whose value is only computed when requested, so that iterating 
+	 * over the keys does not encode the content.
+	 */
+	private final class LazyEntry 
+	implements Map.Entry<String, Object>
+	{
+		private final String key;
+		
+		private LazyEntry( String key )
+		{
+			this.key = key;
+		}
+		
+		public String getKey()
+		{
+			return key;
+		}
+		
+		public Object getValue()
+		{
+			return get(key);
+		}
+		
+		public Object setValue( Object value )
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+}
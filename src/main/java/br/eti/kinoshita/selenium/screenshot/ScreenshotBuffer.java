@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Keeps the last screen shots taken by each thread in memory, as raw 
+ * bytes, in a bounded ring buffer. When the buffer is full, the oldest 
+ * frame is dropped. The frames are only written and attached if the test 
+ * fails or is skipped (see {@link FailureScreenshotListener}), so passing 
+ * tests do not pay for disk I/O or encoding.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ScreenshotBuffer
+{
+
+	private static volatile ScreenshotBuffer instance;
+	
+	private final int capacity;
+	
+	private final ThreadLocal<Ring> rings = new ThreadLocal<Ring>()
+	{
+		protected Ring initialValue()
+		{
+			return new Ring(capacity);
+		}
+	};
+	
+	/**
+	 * @param capacity number of frames kept per thread.
+	 */
+	public ScreenshotBuffer( int capacity )
+	{
+		if ( capacity < 1 )
+		{
+			throw new IllegalArgumentException("Invalid screen shot buffer capacity: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * @return the buffer used by the tests, or <code>null</code> if 
+	 * screen shots are not buffered.
+	 */
+	public static ScreenshotBuffer getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * @param buffer the buffer used by the tests.
+	 */
+	public static void setInstance( ScreenshotBuffer buffer )
+	{
+		instance = buffer;
+	}
+	
+	/**
+	 * @return number of frames kept per thread.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	/**
+	 * Adds a frame to the buffer of the current thread.
+	 * 
+	 * @param capture PNG bytes.
+	 * @param description screen shot description.
+	 */
+	public void add( byte[] capture, String description )
+	{
+		add(capture, description, null, 1.0d);
+	}
+	
+	/**
+	 * Adds a frame to the buffer of the current thread. The frame is only 
+	 * cropped if it is persisted.
+	 * 
+	 * @param capture PNG bytes.
+	 * @param description screen shot description.
+	 * @param region region to keep, or <code>null</code> for the whole page.
+	 * @param scale scale factor.
+	 */
+	public void add( byte[] capture, String description, Rectangle region, double scale )
+	{
+		rings.get().add(new Frame(capture, description, region, scale, System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Removes and returns the frames of the current thread, oldest first.
+	 * 
+	 * @return the frames.
+	 */
+	public List<Frame> drain()
+	{
+		return rings.get().drain();
+	}
+	
+	/**
+	 * Discards the frames of the current thread.
+	 */
+	public void clear()
+	{
+		rings.get().drain();
+	}
+	
+	/**
+	 * A screen shot kept in memory.
+	 */
+	public static final class Frame
+	{
+		private final byte[] capture;
+		private final String description;
+		private final Rectangle region;
+		private final double scale;
+		private final long timestamp;
+		
+		private Frame( byte[] capture, String description, Rectangle region, double scale, long timestamp )
+		{
+			this.capture = capture;
+			this.description = description;
+			this.region = region;
+			this.scale = scale;
+			this.timestamp = timestamp;
+		}
+		
+		/**
+		 * @return PNG bytes.
+		 */
+		public byte[] getCapture()
+		{
+			return capture;
+		}
+		
+		/**
+		 * @return screen shot description.
+		 */
+		public String getDescription()
+		{
+			return description;
+		}
+		
+		/**
+		 * @return region to keep, or <code>null</code> for the whole page.
+		 */
+		public Rectangle getRegion()
+		{
+			return region;
+		}
+		
+		/**
+		 * @return scale factor.
+		 */
+		public double getScale()
+		{
+			return scale;
+		}
+		
+		/**
+		 * @return when the screen shot was taken.
+		 */
+		public long getTimestamp()
+		{
+			return timestamp;
+		}
+	}
+	
+	/*
+	 * Fixed size circular array, used by a single thread.
+	 */
+	private static final class Ring
+	{
+		private final Frame[] frames;
+		private int next = 0;
+		private int size = 0;
+		
+		private Ring( int capacity )
+		{
+			this.frames = new Frame[capacity];
+		}
+		
+		private void add( Frame frame )
+		{
+			frames[next] = frame;
+			next = (next + 1) % frames.length;
+			if ( size < frames.length )
+			{
+				++size;
+			}
+		}
+		
+		private List<Frame> drain()
+		{
+			final List<Frame> drained = new ArrayList<Frame>(size);
+			final int first = (next - size + frames.length) % frames.length;
+			for ( int i = 0 ; i < size ; ++i )
+			{
+				final int index = (first + i) % frames.length;
+				drained.add(frames[index]);
+				frames[index] = null;
+			}
+			size = 0;
+			next = 0;
+			return drained;
+		}
+	}
+	
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import br.eti.kinoshita.selenium.model.SeleniumScreenshot;
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Crops, and optionally scales down, screen shots in memory, so that 
+ * only the region of interest (a widget, for instance) is written and 
+ * embedded in the TAP Stream.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class ScreenshotCropper
+{
+
+	private ScreenshotCropper()
+	{
+	}
+	
+	/**
+	 * Crops a PNG screen shot. The region is clipped to the image bounds.
+	 * 
+	 * @param capture PNG bytes.
+	 * @param region region to keep, in image coordinates. If 
+	 * <code>null</code>, the whole image is kept.
+	 * @param scale scale factor, greater than 0. 1.0 keeps the original 
+	 * size.
+	 * @return the cropped PNG bytes.
+	 * @throws SeleniumWebTestException if the image cannot be decoded, or 
+	 * if the region is outside the image.
+	 */
+	public static byte[] crop( byte[] capture, Rectangle region, double scale )
+	throws SeleniumWebTestException
+	{
+		if ( scale <= 0.0d )
+		{
+			throw new IllegalArgumentException("Invalid scale: " + scale);
+		}
+		if ( region == null && scale == 1.0d )
+		{
+			return capture;
+		}
+		try
+		{
+			final BufferedImage image = ImageIO.read(new ByteArrayInputStream(capture));
+			if ( image == null )
+			{
+				throw new SeleniumWebTestException("Screen shot is not a valid image.");
+			}
+			BufferedImage result = image;
+			if ( region != null )
+			{
+				final Rectangle clipped = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+				if ( clipped.isEmpty() )
+				{
+					throw new SeleniumWebTestException("Region " + region + " is outside the screen shot (" + image.getWidth() + "x" + image.getHeight() + ")");
+				}
+				// getSubimage shares the raster, no pixels are copied here
+				result = image.getSubimage(clipped.x, clipped.y, clipped.width, clipped.height);
+			}
+			if ( scale != 1.0d )
+			{
+				result = scale(result, scale);
+			}
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			ImageIO.write(result, "png", output);
+			return output.toByteArray();
+		}
+		catch ( IOException ioe )
+		{
+			throw new SeleniumWebTestException("Failed to crop screen shot: " + ioe.getMessage(), ioe);
+		}
+	}
+	
+	/**
+	 * Creates the YAMLish map of the region of a screen shot.
+	 * 
+	 * @param screenshot screen shot.
+	 * @return the File-Region map (x, y, width, height and scale), or 
+	 * <code>null</code> if the screen shot has no region.
+	 */
+	public static Map<String, Object> toRegionMap( SeleniumScreenshot screenshot )
+	{
+		final Rectangle region = screenshot.getRegion();
+		if ( region == null )
+		{
+			return null;
+		}
+		final Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("x", region.x);
+		map.put("y", region.y);
+		map.put("width", region.width);
+		map.put("height", region.height);
+		map.put("scale", screenshot.getScale());
+		return map;
+	}
+	
+	private static BufferedImage scale( BufferedImage image, double scale )
+	{
+		final int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		final int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		final int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		final BufferedImage scaled = new BufferedImage(width, height, type);
+		final Graphics2D graphics = scaled.createGraphics();
+		try
+		{
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		}
+		finally
+		{
+			graphics.dispose();
+		}
+		return scaled;
+	}
+	
+}
@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A bounded background executor for the slow part of screen shots: 
+ * writing the file, encoding it and registering the TAP attachment. The 
+ * test thread only pays for the browser capture.</p>
+ * 
+ * <p>The queue is bounded. When it is full, the task runs in the test 
+ * thread that submitted it, so a test that takes screen shots faster 
+ * than they can be processed slows down instead of filling the heap.</p>
+ * 
+ * <p>{@link #flush()} waits for the tasks submitted by the current thread, 
+ * and {@link #flushAll()} for every pending task. The latter is called by 
+ * {@link ScreenshotFlushListener} before the TAP reporter runs.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ScreenshotPipeline
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( ScreenshotPipeline.class );
+	
+	private static volatile ScreenshotPipeline instance;
+	
+	private final ThreadPoolExecutor executor;
+	
+	private final Set<Task> pending = Collections.synchronizedSet(new HashSet<Task>());
+	
+	private final ThreadLocal<List<Task>> submitted = new ThreadLocal<List<Task>>()
+	{
+		protected List<Task> initialValue()
+		{
+			return new ArrayList<Task>();
+		}
+	};
+	
+	/**
+	 * @param threads number of worker threads.
+	 * @param capacity number of tasks that may wait in the queue.
+	 */
+	public ScreenshotPipeline( int threads, int capacity )
+	{
+		if ( threads < 1 || capacity < 1 )
+		{
+			throw new IllegalArgumentException("Invalid screen shot pipeline size: " + threads + " threads, " + capacity + " tasks");
+		}
+		final AtomicInteger count = new AtomicInteger(0);
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(capacity), 
+				new ThreadFactory()
+				{
+					public Thread newThread( Runnable r )
+					{
+						final Thread t = new Thread(r, "screenshot-pipeline-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, 
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+	
+	/**
+	 * @return the pipeline used by the tests, or <code>null</code> if none 
+	 * was created.
+	 */
+	public static ScreenshotPipeline getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * @param pipeline the pipeline used by the tests.
+	 */
+	public static void setInstance( ScreenshotPipeline pipeline )
+	{
+		instance = pipeline;
+	}
+	
+	/**
+	 * Submits a task. If the queue is full, the task runs in the current 
+	 * thread.
+	 * 
+	 * @param task the work to do with a screen shot.
+	 */
+	public void submit( Runnable task )
+	{
+		final Task t = new Task(task);
+		pending.add(t);
+		submitted.get().add(t);
+		executor.execute(t);
+	}
+	
+	/**
+	 * Waits for the tasks submitted by the current thread.
+	 * 
+	 * @return the number of failed tasks.
+	 */
+	public int flush()
+	{
+		final List<Task> tasks = submitted.get();
+		final int failures = await(tasks);
+		tasks.clear();
+		return failures;
+	}
+	
+	/**
+	 * Waits for every pending task, submitted by any thread.
+	 * 
+	 * @return the number of failed tasks.
+	 */
+	public int flushAll()
+	{
+		List<Task> tasks;
+		synchronized ( pending )
+		{
+			tasks = new ArrayList<Task>(pending);
+		}
+		return await(tasks);
+	}
+	
+	/**
+	 * @return the number of tasks not finished yet.
+	 */
+	public int getPendingCount()
+	{
+		return pending.size();
+	}
+	
+	/**
+	 * Waits for the pending tasks and stops the worker threads.
+	 */
+	public void shutdown()
+	{
+		flushAll();
+		executor.shutdown();
+	}
+	
+	private int await( List<Task> tasks )
+	{
+		int failures = 0;
+		for ( Task task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch ( InterruptedException ie )
+			{
+				Thread.currentThread().interrupt();
+				LOGGER.warn("Interrupted while waiting for screen shots.");
+				return failures;
+			}
+			catch ( ExecutionException ee )
+			{
+				++failures;
+				LOGGER.error("Failed to process screen shot: " + ee.getCause().getMessage(), ee.getCause());
+			}
+		}
+		return failures;
+	}
+	
+	/*
+	 * Removes itself from the pending tasks when done.
+	 */
+	private final class Task 
+	extends FutureTask<Object>
+	{
+		private Task( Runnable runnable )
+		{
+			super(runnable, null);
+		}
+		
+		protected void done()
+		{
+			pending.remove(this);
+		}
+	}
+	
+}
@@ -0,0 +1,392 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>A content-addressed store for screen shot files. Each file is named 
+ * after the SHA-1 of its content, so identical screen shots (the same 
+ * error page in many data-driven rows, for instance) are written only 
+ * once. {@link #embedOnce(Object, String)} tells whether the content was 
+ * already embedded in a TAP Stream, so that duplicates can be referenced 
+ * by their hash instead.</p>
+ * 
+ * <p>Optionally, stored PNG files are recompressed by a worker pool. 
+ * Screen shots with up to 256 colours are converted to an indexed palette, 
+ * which is lossless, and the result replaces the file only when smaller. 
+ * The file keeps the name (hash) of its original content.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ScreenshotStore
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( ScreenshotStore.class );
+	
+	private static final int MAX_PALETTE_SIZE = 256;
+	
+	private static volatile ScreenshotStore instance;
+	
+	private final File directory;
+	
+	private final ExecutorService recompressor;
+	
+	private final List<Future<?>> recompressions = Collections.synchronizedList(new ArrayList<Future<?>>());
+	
+	private final Map<Object, Set<String>> embedded = new WeakHashMap<Object, Set<String>>();
+	
+	/**
+	 * @param directory where the files are stored.
+	 * @param recompressThreads number of threads recompressing PNG files. 
+	 * Use 0 to disable the recompression.
+	 */
+	public ScreenshotStore( File directory, int recompressThreads )
+	{
+		this.directory = directory;
+		if ( recompressThreads > 0 )
+		{
+			this.recompressor = Executors.newFixedThreadPool(recompressThreads, new ThreadFactory()
+			{
+				public Thread newThread( Runnable r )
+				{
+					final Thread t = new Thread(r, "screenshot-recompress");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+		}
+		else
+		{
+			this.recompressor = null;
+		}
+	}
+	
+	/**
+	 * @return the store used by the tests, or <code>null</code> if none 
+	 * was created.
+	 */
+	public static ScreenshotStore getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * @param store the store used by the tests.
+	 */
+	public static void setInstance( ScreenshotStore store )
+	{
+		instance = store;
+	}
+	
+	/**
+	 * @return the store directory.
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+	
+	/**
+	 * Moves a file into the store. If the same content is already stored, 
+	 * the file is deleted.
+	 * 
+	 * @param file screen shot file.
+	 * @return the hash of its content.
+	 * @throws SeleniumWebTestException if the file cannot be read or moved.
+	 */
+	public String put( File file )
+	throws SeleniumWebTestException
+	{
+		final String hash = hash(file);
+		final File stored = getFile(hash, FilenameUtils.getExtension(file.getName()));
+		try
+		{
+			synchronized ( this )
+			{
+				if ( stored.equals(file) )
+				{
+					return hash;
+				}
+				if ( stored.exists() )
+				{
+					LOGGER.debug("Screen shot " + file + " already stored as " + stored);
+					FileUtils.deleteQuietly(file);
+					return hash;
+				}
+				FileUtils.forceMkdir(directory);
+				if ( ! file.renameTo(stored) )
+				{
+					FileUtils.moveFile(file, stored);
+				}
+			}
+		}
+		catch ( IOException ioe )
+		{
+			throw new SeleniumWebTestException("Failed to store screen shot " + file, ioe);
+		}
+		if ( recompressor != null && "png".equalsIgnoreCase(FilenameUtils.getExtension(stored.getName())) )
+		{
+			recompressions.add(recompressor.submit(new Runnable()
+			{
+				public void run()
+				{
+					recompress(stored);
+				}
+			}));
+		}
+		return hash;
+	}
+	
+	/**
+	 * @param hash content hash.
+	 * @param extension file extension, without the dot.
+	 * @return the stored file for the hash.
+	 */
+	public File getFile( String hash, String extension )
+	{
+		return new File(directory, extension == null || extension.length() == 0 ? hash : hash + "." + extension);
+	}
+	
+	/**
+	 * Records that a content was embedded in a scope (a TestNG context, 
+	 * for instance).
+	 * 
+	 * @param scope where the content is embedded.
+	 * @param hash content hash.
+	 * @return <code>true</code> the first time a hash is embedded in the 
+	 * scope, <code>false</code> afterwards.
+	 */
+	public boolean embedOnce( Object scope, String hash )
+	{
+		synchronized ( embedded )
+		{
+			Set<String> hashes = embedded.get(scope);
+			if ( hashes == null )
+			{
+				hashes = new HashSet<String>();
+				embedded.put(scope, hashes);
+			}
+			return hashes.add(hash);
+		}
+	}
+	
+	/**
+	 * Waits for the pending recompressions.
+	 */
+	public void flush()
+	{
+		List<Future<?>> pending;
+		synchronized ( recompressions )
+		{
+			pending = new ArrayList<Future<?>>(recompressions);
+			recompressions.clear();
+		}
+		for ( Future<?> future : pending )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( InterruptedException ie )
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch ( ExecutionException ee )
+			{
+				LOGGER.warn("Failed to recompress screen shot: " + ee.getCause().getMessage(), ee.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Recompresses a PNG file, replacing it only if the result is smaller.
+	 * 
+	 * @param file PNG file.
+	 */
+	protected void recompress( File file )
+	{
+		File temp = null;
+		try
+		{
+			final BufferedImage image = ImageIO.read(file);
+			if ( image == null )
+			{
+				return;
+			}
+			final BufferedImage indexed = toIndexed(image);
+			temp = new File(file.getParentFile(), file.getName() + ".tmp");
+			if ( ! ImageIO.write(indexed != null ? indexed : image, "png", temp) )
+			{
+				return;
+			}
+			final long before = file.length();
+			final long after = temp.length();
+			if ( after > 0 && after < before )
+			{
+				// rename is atomic on POSIX file systems, readers see the 
+				// old or the new file, never a partial one
+				if ( ! temp.renameTo(file) )
+				{
+					FileUtils.forceDelete(file);
+					FileUtils.moveFile(temp, file);
+				}
+				LOGGER.debug("Recompressed " + file + " from " + before + " to " + after + " bytes");
+			}
+		}
+		catch ( IOException ioe )
+		{
+			LOGGER.warn("Failed to recompress screen shot " + file + ": " + ioe.getMessage(), ioe);
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+	
+	/**
+	 * Converts an image with up to 256 colours to an indexed palette image.
+	 * 
+	 * @param image image.
+	 * @return the indexed image, or <code>null</code> if the image has more 
+	 * colours.
+	 */
+	protected static BufferedImage toIndexed( BufferedImage image )
+	{
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+		final Map<Integer, Integer> palette = new HashMap<Integer, Integer>();
+		for ( int pixel : pixels )
+		{
+			final Integer colour = Integer.valueOf(pixel);
+			if ( ! palette.containsKey(colour) )
+			{
+				if ( palette.size() == MAX_PALETTE_SIZE )
+				{
+					return null;
+				}
+				palette.put(colour, Integer.valueOf(palette.size()));
+			}
+		}
+		final int size = palette.size();
+		final byte[] r = new byte[size];
+		final byte[] g = new byte[size];
+		final byte[] b = new byte[size];
+		final byte[] a = new byte[size];
+		for ( Map.Entry<Integer, Integer> entry : palette.entrySet() )
+		{
+			final int argb = entry.getKey().intValue();
+			final int index = entry.getValue().intValue();
+			a[index] = (byte) (argb >>> 24);
+			r[index] = (byte) (argb >>> 16);
+			g[index] = (byte) (argb >>> 8);
+			b[index] = (byte) argb;
+		}
+		final int bits = size <= 2 ? 1 : size <= 4 ? 2 : size <= 16 ? 4 : 8;
+		final IndexColorModel model = new IndexColorModel(bits, size, r, g, b, a);
+		final BufferedImage indexed = new BufferedImage(width, height, 
+				bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY, model);
+		final WritableRaster raster = indexed.getRaster();
+		for ( int y = 0 ; y < height ; ++y )
+		{
+			for ( int x = 0 ; x < width ; ++x )
+			{
+				raster.setSample(x, y, 0, palette.get(Integer.valueOf(pixels[y * width + x])).intValue());
+			}
+		}
+		return indexed;
+	}
+	
+	/**
+	 * @param file file.
+	 * @return the SHA-1 of the file content, in hexadecimal.
+	 * @throws SeleniumWebTestException if the file cannot be read.
+	 */
+	public static String hash( File file )
+	throws SeleniumWebTestException
+	{
+		InputStream input = null;
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			input = new FileInputStream(file);
+			final byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ( (read = input.read(buffer)) != -1 )
+			{
+				digest.update(buffer, 0, read);
+			}
+			return new String(Hex.encodeHex(digest.digest()));
+		}
+		catch ( NoSuchAlgorithmException nsae )
+		{
+			throw new SeleniumWebTestException("SHA-1 not available.", nsae);
+		}
+		catch ( IOException ioe )
+		{
+			throw new SeleniumWebTestException("Failed to hash screen shot " + file, ioe);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+	}
+	
+}
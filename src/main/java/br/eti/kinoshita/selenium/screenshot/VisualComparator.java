@@ -0,0 +1,517 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.screenshot;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.eti.kinoshita.selenium.util.SeleniumWebTestException;
+
+/**
+ * <p>Compares screen shots against baseline images. The comparison is done 
+ * in steps, from the cheapest to the most expensive one:</p>
+ * 
+ * <ol>
+ * <li>files with the same bytes are identical;</li>
+ * <li>if a hash threshold is set, images whose perceptual hashes (dHash, 
+ * 64 bits) are within that Hamming distance are similar, and no pixel is 
+ * compared. Small changes, like a label or a price, seldom change the 
+ * hash, so this step is disabled by default;</li>
+ * <li>other images are compared pixel by pixel, in tiles processed in 
+ * parallel. A diff image, with the differing pixels in red, is written 
+ * next to the screen shot.</li>
+ * </ol>
+ * 
+ * <p>When there is no baseline yet, the screen shot becomes the 
+ * baseline.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class VisualComparator
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( VisualComparator.class );
+	
+	private static final int DIFF_COLOUR = 0xFFFF0000;
+	
+	private static volatile VisualComparator instance;
+	
+	/**
+	 * Result of a comparison.
+	 */
+	public static enum Result 
+	{
+		IDENTICAL, SIMILAR, DIFFERENT, NEW_BASELINE
+	}
+	
+	private final File baselineDirectory;
+	private final ExecutorService executor;
+	private final int tileHeight;
+	private int hashThreshold = -1;
+	private int pixelTolerance = 0;
+	private double maxDifference = 0.0d;
+	
+	private final Map<String, HashEntry> baselineHashes = new ConcurrentHashMap<String, HashEntry>();
+	
+	/**
+	 * @param baselineDirectory directory with the baseline images.
+	 * @param threads number of threads comparing tiles.
+	 * @param tileHeight height, in pixels, of each tile.
+	 */
+	public VisualComparator( File baselineDirectory, int threads, int tileHeight )
+	{
+		if ( threads < 1 || tileHeight < 1 )
+		{
+			throw new IllegalArgumentException("Invalid visual comparator settings: " + threads + " threads, tiles with " + tileHeight + " rows");
+		}
+		this.baselineDirectory = baselineDirectory;
+		this.tileHeight = tileHeight;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			public Thread newThread( Runnable r )
+			{
+				final Thread t = new Thread(r, "visual-comparator");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * @return the comparator used by the tests, or <code>null</code> if 
+	 * screen shots are not compared.
+	 */
+	public static VisualComparator getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * @param comparator the comparator used by the tests.
+	 */
+	public static void setInstance( VisualComparator comparator )
+	{
+		instance = comparator;
+	}
+	
+	/**
+	 * @return directory with the baseline images.
+	 */
+	public File getBaselineDirectory()
+	{
+		return baselineDirectory;
+	}
+	
+	/**
+	 * @param hashThreshold maximum Hamming distance between the perceptual 
+	 * hashes of images considered similar without comparing their pixels. 
+	 * -1 by default, all images are compared pixel by pixel.
+	 */
+	public void setHashThreshold( int hashThreshold )
+	{
+		this.hashThreshold = hashThreshold;
+	}
+	
+	/**
+	 * @param pixelTolerance maximum difference in any colour channel of 
+	 * two pixels considered equal. 0 by default.
+	 */
+	public void setPixelTolerance( int pixelTolerance )
+	{
+		this.pixelTolerance = pixelTolerance;
+	}
+	
+	/**
+	 * @param maxDifference maximum fraction of differing pixels of similar 
+	 * images. 0 by default.
+	 */
+	public void setMaxDifference( double maxDifference )
+	{
+		this.maxDifference = maxDifference;
+	}
+	
+	/**
+	 * @param name baseline name.
+	 * @return the baseline file, which may not exist.
+	 */
+	public File getBaseline( String name )
+	{
+		final StringBuilder safe = new StringBuilder(name.length());
+		for ( int i = 0 ; i < name.length() ; ++i )
+		{
+			final char c = name.charAt(i);
+			safe.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_' ? c : '_');
+		}
+		return new File(baselineDirectory, safe.append(".png").toString());
+	}
+	
+	/**
+	 * Compares a screen shot with its baseline. If the baseline does not 
+	 * exist, the screen shot is copied as baseline.
+	 * 
+	 * @param actual screen shot.
+	 * @param baseline baseline image.
+	 * @return the comparison.
+	 * @throws SeleniumWebTestException if an image cannot be read.
+	 */
+	public Comparison compare( File actual, File baseline )
+	throws SeleniumWebTestException
+	{
+		final long start = System.nanoTime();
+		try
+		{
+			if ( ! baseline.exists() )
+			{
+				FileUtils.copyFile(actual, baseline);
+				LOGGER.info("New baseline " + baseline);
+				return new Comparison(Result.NEW_BASELINE, baseline, 0, 0.0d, null, start);
+			}
+			if ( FileUtils.contentEquals(actual, baseline) )
+			{
+				return new Comparison(Result.IDENTICAL, baseline, 0, 0.0d, null, start);
+			}
+			final BufferedImage actualImage = read(actual);
+			int distance = -1;
+			if ( hashThreshold >= 0 )
+			{
+				distance = Long.bitCount(hash(actualImage) ^ getBaselineHash(baseline));
+				if ( distance <= hashThreshold )
+				{
+					return new Comparison(Result.SIMILAR, baseline, distance, -1.0d, null, start);
+				}
+			}
+			final BufferedImage baselineImage = read(baseline);
+			final BufferedImage diffImage = new BufferedImage(
+					Math.max(actualImage.getWidth(), baselineImage.getWidth()), 
+					Math.max(actualImage.getHeight(), baselineImage.getHeight()), 
+					BufferedImage.TYPE_INT_RGB);
+			final long differing = diff(actualImage, baselineImage, diffImage);
+			final double score = (double) differing / ((long) diffImage.getWidth() * diffImage.getHeight());
+			if ( score <= maxDifference )
+			{
+				return new Comparison(Result.SIMILAR, baseline, distance, score, null, start);
+			}
+			final File diffFile = new File(actual.getParentFile(), actual.getName().replaceFirst("\\.png$", "") + "-diff.png");
+			ImageIO.write(diffImage, "png", diffFile);
+			return new Comparison(Result.DIFFERENT, baseline, distance, score, diffFile, start);
+		}
+		catch ( IOException ioe )
+		{
+			throw new SeleniumWebTestException("Failed to compare " + actual + " with " + baseline + ": " + ioe.getMessage(), ioe);
+		}
+	}
+	
+	/**
+	 * Computes the difference hash (dHash) of an image: the image is 
+	 * reduced to 9x8 gray pixels, and each bit tells whether a pixel is 
+	 * brighter than its right neighbour.
+	 * 
+	 * @param image image.
+	 * @return 64 bits perceptual hash.
+	 */
+	public static long hash( BufferedImage image )
+	{
+		final BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+		final Graphics2D graphics = small.createGraphics();
+		try
+		{
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, 9, 8, null);
+		}
+		finally
+		{
+			graphics.dispose();
+		}
+		long hash = 0L;
+		for ( int y = 0 ; y < 8 ; ++y )
+		{
+			for ( int x = 0 ; x < 8 ; ++x )
+			{
+				hash <<= 1;
+				if ( small.getRaster().getSample(x, y, 0) > small.getRaster().getSample(x + 1, y, 0) )
+				{
+					hash |= 1L;
+				}
+			}
+		}
+		return hash;
+	}
+	
+	/*
+	 * Baseline hashes are cached until the baseline file changes.
+	 */
+	private long getBaselineHash( File baseline )
+	throws IOException
+	{
+		final String key = baseline.getAbsolutePath();
+		final HashEntry cached = baselineHashes.get(key);
+		if ( cached != null && cached.lastModified == baseline.lastModified() && cached.length == baseline.length() )
+		{
+			return cached.hash;
+		}
+		final HashEntry entry = new HashEntry(baseline.lastModified(), baseline.length(), hash(read(baseline)));
+		baselineHashes.put(key, entry);
+		return entry.hash;
+	}
+	
+	/*
+	 * Compares the images in horizontal tiles, in parallel. Each tile writes 
+	 * its own rows of the diff image.
+	 */
+	private long diff( final BufferedImage actual, final BufferedImage baseline, final BufferedImage diffImage )
+	{
+		final int width = diffImage.getWidth();
+		final int height = diffImage.getHeight();
+		final List<Future<Long>> tiles = new ArrayList<Future<Long>>();
+		for ( int top = 0 ; top < height ; top += tileHeight )
+		{
+			final int y0 = top;
+			final int rows = Math.min(tileHeight, height - top);
+			tiles.add(executor.submit(new Callable<Long>()
+			{
+				public Long call()
+				{
+					return Long.valueOf(diffTile(actual, baseline, diffImage, y0, rows, width));
+				}
+			}));
+		}
+		long differing = 0L;
+		try
+		{
+			for ( Future<Long> tile : tiles )
+			{
+				differing += tile.get().longValue();
+			}
+		}
+		catch ( InterruptedException ie )
+		{
+			Thread.currentThread().interrupt();
+			throw new SeleniumWebTestException("Interrupted while comparing screen shots.", ie);
+		}
+		catch ( ExecutionException ee )
+		{
+			throw new SeleniumWebTestException("Failed to compare screen shots: " + ee.getCause().getMessage(), ee.getCause());
+		}
+		return differing;
+	}
+	
+	private long diffTile( BufferedImage actual, BufferedImage baseline, BufferedImage diffImage, int y0, int rows, int width )
+	{
+		final int[] a = rows(actual, y0, rows, width);
+		final int[] b = rows(baseline, y0, rows, width);
+		final int[] out = new int[width * rows];
+		long differing = 0L;
+		for ( int i = 0 ; i < out.length ; ++i )
+		{
+			if ( a[i] == b[i] || (a[i] != 0 && b[i] != 0 && withinTolerance(a[i], b[i])) )
+			{
+				// faded copy of the page, so the differences stand out
+				final int gray = (((a[i] >> 16) & 0xFF) + ((a[i] >> 8) & 0xFF) + (a[i] & 0xFF)) / 3;
+				final int faded = 192 + gray / 4;
+				out[i] = (faded << 16) | (faded << 8) | faded;
+			}
+			else
+			{
+				out[i] = DIFF_COLOUR;
+				++differing;
+			}
+		}
+		diffImage.setRGB(0, y0, width, rows, out, 0, width);
+		return differing;
+	}
+	
+	/*
+	 * Pixels of a band of an image. Pixels outside the image are 0, which 
+	 * never matches an opaque pixel.
+	 */
+	private static int[] rows( BufferedImage image, int y0, int rows, int width )
+	{
+		final int[] pixels = new int[width * rows];
+		final int w = Math.min(width, image.getWidth());
+		final int h = Math.min(rows, image.getHeight() - y0);
+		if ( w > 0 && h > 0 )
+		{
+			image.getRGB(0, y0, w, h, pixels, 0, width);
+		}
+		return pixels;
+	}
+	
+	private boolean withinTolerance( int p, int q )
+	{
+		if ( pixelTolerance == 0 )
+		{
+			return false;
+		}
+		for ( int shift = 0 ; shift <= 24 ; shift += 8 )
+		{
+			if ( Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF)) > pixelTolerance )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static BufferedImage read( File file )
+	throws IOException
+	{
+		final BufferedImage image = ImageIO.read(file);
+		if ( image == null )
+		{
+			throw new IOException("Not an image: " + file);
+		}
+		return image;
+	}
+	
+	/**
+	 * Stops the comparator threads.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+	
+	/*
+	 * Cached perceptual hash of a baseline.
+	 */
+	private static final class HashEntry
+	{
+		private final long lastModified;
+		private final long length;
+		private final long hash;
+		
+		private HashEntry( long lastModified, long length, long hash )
+		{
+			this.lastModified = lastModified;
+			this.length = length;
+			this.hash = hash;
+		}
+	}
+	
+	/**
+	 * Outcome of the comparison of a screen shot with its baseline.
+	 */
+	public static final class Comparison
+	{
+		private final Result result;
+		private final File baseline;
+		private final int distance;
+		private final double score;
+		private final File diff;
+		private final long elapsed;
+		
+		private Comparison( Result result, File baseline, int distance, double score, File diff, long start )
+		{
+			this.result = result;
+			this.baseline = baseline;
+			this.distance = distance;
+			this.score = score;
+			this.diff = diff;
+			this.elapsed = (System.nanoTime() - start) / 1000000L;
+		}
+		
+		/**
+		 * @return the result.
+		 */
+		public Result getResult()
+		{
+			return result;
+		}
+		
+		/**
+		 * @return the baseline file.
+		 */
+		public File getBaseline()
+		{
+			return baseline;
+		}
+		
+		/**
+		 * @return Hamming distance between the perceptual hashes, or -1 if 
+		 * they were not compared.
+		 */
+		public int getDistance()
+		{
+			return distance;
+		}
+		
+		/**
+		 * @return fraction of differing pixels, or -1 if the pixels were not 
+		 * compared.
+		 */
+		public double getScore()
+		{
+			return score;
+		}
+		
+		/**
+		 * @return the diff image, or <code>null</code> if the images are 
+		 * not different.
+		 */
+		public File getDiff()
+		{
+			return diff;
+		}
+		
+		/**
+		 * @return the YAMLish map of this comparison.
+		 */
+		public Map<String, Object> toMap()
+		{
+			final Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("Visual-Result", result.name());
+			map.put("Visual-Baseline", baseline.getAbsolutePath());
+			map.put("Visual-Distance", distance);
+			map.put("Visual-Score", score);
+			map.put("Visual-Time", elapsed);
+			if ( diff != null )
+			{
+				map.put("Visual-Diff", diff.getAbsolutePath());
+			}
+			return map;
+		}
+	}
+	
+}
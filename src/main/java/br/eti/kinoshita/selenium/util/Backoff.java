@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Tells a {@link Poller} how long to wait before checking a condition 
+ * again.</p>
+ * 
+ * <ul>
+ * <li>{@link #fixed(long)} waits always the same;</li>
+ * <li>{@link #exponential(long, double, long)} starts with a short interval 
+ * and multiplies it after each attempt, up to a maximum;</li>
+ * <li>{@link #adaptive(long, long)} learns how long conditions usually take, 
+ * polls rarely before that, and often around it.</li>
+ * </ul>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public abstract class Backoff
+{
+
+	/**
+	 * @param attempt number of attempts already made, starting at 1.
+	 * @param elapsed nanoseconds since the wait started.
+	 * @return nanoseconds to sleep before the next attempt.
+	 */
+	public abstract long nextInterval( int attempt, long elapsed );
+	
+	/**
+	 * Called when a condition was met, so that adaptive strategies can 
+	 * learn from it.
+	 * 
+	 * @param elapsed nanoseconds the condition took to be met.
+	 */
+	public void onSuccess( long elapsed )
+	{
+	}
+	
+	/**
+	 * @param interval milliseconds between attempts.
+	 * @return a backoff that always waits the same.
+	 */
+	public static Backoff fixed( final long interval )
+	{
+		final long nanos = TimeUnit.MILLISECONDS.toNanos(interval);
+		return new Backoff()
+		{
+			public long nextInterval( int attempt, long elapsed )
+			{
+				return nanos;
+			}
+		};
+	}
+	
+	/**
+	 * @param initial milliseconds before the second attempt.
+	 * @param multiplier factor applied to the interval after each attempt.
+	 * @param max maximum milliseconds between attempts.
+	 * @return an exponential backoff.
+	 */
+	public static Backoff exponential( long initial, final double multiplier, long max )
+	{
+		if ( initial < 1 || multiplier < 1.0d || max < initial )
+		{
+			throw new IllegalArgumentException("Invalid backoff: " + initial + "ms * " + multiplier + " up to " + max + "ms");
+		}
+		final long initialNanos = TimeUnit.MILLISECONDS.toNanos(initial);
+		final long maxNanos = TimeUnit.MILLISECONDS.toNanos(max);
+		return new Backoff()
+		{
+			public long nextInterval( int attempt, long elapsed )
+			{
+				final double interval = initialNanos * Math.pow(multiplier, attempt - 1);
+				return interval >= maxNanos ? maxNanos : (long) interval;
+			}
+		};
+	}
+	
+	/**
+	 * @param min minimum milliseconds between attempts.
+	 * @param max maximum milliseconds between attempts.
+	 * @return an adaptive backoff. Share it between waits of the same kind.
+	 */
+	public static Backoff adaptive( long min, long max )
+	{
+		return new Adaptive(TimeUnit.MILLISECONDS.toNanos(min), TimeUnit.MILLISECONDS.toNanos(max));
+	}
+	
+	/*
+	 * Keeps an exponentially weighted moving average of the time conditions 
+	 * take. Before the expected time, it sleeps half of the time left. 
+	 * After it, it polls with an exponential backoff from the minimum.
+	 */
+	private static final class Adaptive 
+	extends Backoff
+	{
+		private static final double WEIGHT = 0.2d;
+		
+		private final long min;
+		private final long max;
+		private volatile long expected = -1L;
+		
+		private Adaptive( long min, long max )
+		{
+			if ( min < 1 || max < min )
+			{
+				throw new IllegalArgumentException("Invalid backoff: " + min + "ns to " + max + "ns");
+			}
+			this.min = min;
+			this.max = max;
+		}
+		
+		public long nextInterval( int attempt, long elapsed )
+		{
+			final long e = expected;
+			if ( e > 0 && elapsed < e )
+			{
+				return clamp((e - elapsed) / 2);
+			}
+			return clamp((long) (min * Math.pow(1.5d, attempt - 1)));
+		}
+		
+		public void onSuccess( long elapsed )
+		{
+			final long e = expected;
+			expected = e < 0 ? elapsed : (long) (WEIGHT * elapsed + (1.0d - WEIGHT) * e);
+		}
+		
+		private long clamp( long interval )
+		{
+			return interval < min ? min : interval > max ? max : interval;
+		}
+	}
+	
+}
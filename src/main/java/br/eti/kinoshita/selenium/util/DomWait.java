@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Waits for elements inside the browser. A script is started with 
+ * <code>executeAsyncScript</code>, and a MutationObserver checks the 
+ * element each time the DOM changes. The script returns as soon as the 
+ * element is present, enabled and visible, so the whole wait costs a 
+ * single round trip to the driver.</p>
+ * 
+ * <p>Only locators that can be evaluated in the page are supported (id, 
+ * CSS selector, XPath, name, class name and tag name). For other 
+ * locators, or drivers that cannot run asynchronous scripts, it falls 
+ * back to {@link Utils#waitForAssyncContent(WebDriver, By, Long)}.</p>
+ * 
+ * <p>The script timeout of the driver is changed to cover the wait, and 
+ * set back to {@link #setDefaultScriptTimeout(long)} (the 
+ * selenium.driver.scriptTimeout, 0 by default) afterwards, as drivers 
+ * are reused by other tests.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class DomWait
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DomWait.class);
+	
+	/**
+	 * Extra time given to the script timeout, so that the script returns 
+	 * before the driver gives up on it.
+	 */
+	private static final long SCRIPT_TIMEOUT_MARGIN = 2000L;
+	
+	private static volatile long defaultScriptTimeout = 0L;
+	
+	private static final String[][] LOCATORS = {
+		{ "By.id: ", "id" }, 
+		{ "By.selector: ", "css" }, 
+		{ "By.xpath: ", "xpath" }, 
+		{ "By.name: ", "name" }, 
+		{ "By.className: ", "class" }, 
+		{ "By.tagName: ", "tag" }
+	};
+	
+	private static final String WAIT_SCRIPT = 
+		"var kind = arguments[0], value = arguments[1], timeout = arguments[2];" +
+		"var callback = arguments[arguments.length - 1];" +
+		"var done = false, observer = null, timer = null, interval = null;" +
+		"function locate() {" +
+		"  if (kind == 'id') return document.getElementById(value);" +
+		"  if (kind == 'css') return document.querySelector ? document.querySelector(value) : null;" +
+		"  if (kind == 'xpath') return document.evaluate ? document.evaluate(value, document, null, 9, null).singleNodeValue : null;" +
+		"  if (kind == 'name') return document.getElementsByName(value)[0] || null;" +
+		"  if (kind == 'class') return document.getElementsByClassName ? document.getElementsByClassName(value)[0] || null : null;" +
+		"  if (kind == 'tag') return document.getElementsByTagName(value)[0] || null;" +
+		"  return null;" +
+		"}" +
+		"function ready(el) {" +
+		"  if (!el || el.disabled) return false;" +
+		"  if (el.offsetWidth <= 0 && el.offsetHeight <= 0) return false;" +
+		"  var style = window.getComputedStyle ? window.getComputedStyle(el, null) : el.currentStyle;" +
+		"  return !style || (style.visibility != 'hidden' && style.display != 'none');" +
+		"}" +
+		"function finish(el) {" +
+		"  if (done) return;" +
+		"  done = true;" +
+		"  if (observer) observer.disconnect();" +
+		"  if (timer) clearTimeout(timer);" +
+		"  if (interval) clearInterval(interval);" +
+		"  callback(el);" +
+		"}" +
+		"function check() { var el = locate(); if (ready(el)) finish(el); }" +
+		"check();" +
+		"if (!done) {" +
+		"  var Observer = window.MutationObserver || window.WebKitMutationObserver;" +
+		"  if (Observer) {" +
+		"    observer = new Observer(check);" +
+		"    observer.observe(document.documentElement, { childList: true, subtree: true, attributes: true });" +
+		"  }" +
+		// style sheets and browsers without MutationObserver
+		"  interval = setInterval(check, Observer ? 250 : 50);" +
+		"  timer = setTimeout(function() { finish(locate()); }, timeout);" +
+		"}";
+	
+	private DomWait()
+	{
+	}
+	
+	/**
+	 * @param scriptTimeout script timeout, in milliseconds, set back on the 
+	 * driver after each wait.
+	 */
+	public static void setDefaultScriptTimeout( long scriptTimeout )
+	{
+		defaultScriptTimeout = scriptTimeout;
+	}
+	
+	/**
+	 * Waits for an element to be present, enabled and visible. 
+	 * 
+	 * @param driver Selenium web driver.
+	 * @param by Selenium By expression.
+	 * @param timeout time out, in milliseconds.
+	 * @return the element. If the time out expires, the element found 
+	 * but not enabled or visible.
+	 * @throws NoSuchElementException if the element is not found.
+	 */
+	public static WebElement waitForElement( WebDriver driver, By by, long timeout )
+	throws NoSuchElementException
+	{
+		final String[] locator = toScriptLocator(by);
+		if ( locator == null || ! (driver instanceof JavascriptExecutor) )
+		{
+			return Utils.waitForAssyncContent(driver, by, timeout);
+		}
+		final long start = System.nanoTime();
+		final Object result;
+		try
+		{
+			driver.manage().timeouts().setScriptTimeout(timeout + SCRIPT_TIMEOUT_MARGIN, TimeUnit.MILLISECONDS);
+			try
+			{
+				result = ((JavascriptExecutor) driver).executeAsyncScript(WAIT_SCRIPT, locator[0], locator[1], Long.valueOf(timeout));
+			}
+			finally
+			{
+				driver.manage().timeouts().setScriptTimeout(defaultScriptTimeout, TimeUnit.MILLISECONDS);
+			}
+		}
+		catch ( WebDriverException wde )
+		{
+			LOGGER.debug("Failed to wait for " + by + " in the browser, polling instead: " + wde.getMessage(), wde);
+			// only the time left, so the whole wait does not exceed the time out
+			final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			return Utils.waitForAssyncContent(driver, by, Math.max(0L, timeout - elapsed));
+		}
+		if ( result instanceof WebElement )
+		{
+			return (WebElement) result;
+		}
+		throw new NoSuchElementException( "Could not locate assync content" );
+	}
+	
+	/**
+	 * @param by Selenium By expression.
+	 * @return the kind (id, css, xpath, name, class or tag) and value of 
+	 * the locator, or <code>null</code> if it cannot be evaluated in the page.
+	 */
+	static String[] toScriptLocator( By by )
+	{
+		final String description = by.toString();
+		for ( String[] locator : LOCATORS )
+		{
+			if ( description.startsWith(locator[0]) )
+			{
+				return new String[] { locator[1], description.substring(locator[0].length()) };
+			}
+		}
+		return null;
+	}
+	
+}
@@ -0,0 +1,303 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.WrapsDriver;
+import org.openqa.selenium.internal.WrapsElement;
+
+/**
+ * <p>The state of an element (enabled, displayed, selected, attributes 
+ * and number of options) read in a single script call, instead of one 
+ * call per property. The options of a select are counted in the browser, 
+ * without fetching each option element.</p>
+ * 
+ * <p>Displayed is computed in the page: the element has a size, and its 
+ * visibility and display styles do not hide it. Attributes are read as 
+ * properties when the element has a property with the same name (value, 
+ * checked, ...), like WebElement#getAttribute does. As with it, boolean 
+ * properties are "true" or <code>null</code>.</p>
+ * 
+ * <p>If the driver cannot run scripts, or cannot be found, the snapshot 
+ * reads each property with the WebElement methods, only when it is 
+ * asked for.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ElementSnapshot
+{
+
+	private static final String SNAPSHOT_SCRIPT = 
+		"var els = arguments[0], names = arguments[1], out = [];" +
+		"for (var i = 0; i < els.length; i++) {" +
+		"  var el = els[i];" +
+		"  if (!el) { out.push({ present: false }); continue; }" +
+		"  var style = window.getComputedStyle ? window.getComputedStyle(el, null) : el.currentStyle;" +
+		"  var displayed = (el.offsetWidth > 0 || el.offsetHeight > 0) && (!style || (style.visibility != 'hidden' && style.display != 'none'));" +
+		"  var tag = el.tagName ? el.tagName.toLowerCase() : '';" +
+		"  var attributes = {};" +
+		"  for (var j = 0; j < names.length; j++) {" +
+		"    var name = names[j], value = null;" +
+		"    if (name in el && typeof el[name] == 'boolean') { value = el[name] ? 'true' : null; }" +
+		"    else if (name in el && el[name] != null && typeof el[name] != 'object' && typeof el[name] != 'function') { value = el[name]; }" +
+		"    else { value = el.getAttribute(name); }" +
+		"    attributes[name] = value == null ? null : String(value);" +
+		"  }" +
+		"  out.push({ present: true, tagName: tag, enabled: !el.disabled, displayed: displayed," +
+		"    selected: !!(el.selected || el.checked)," +
+		"    optionCount: tag == 'select' ? el.options.length : el.getElementsByTagName('option').length," +
+		"    attributes: attributes });" +
+		"}" +
+		"return out;";
+	
+	private final boolean present;
+	private String tagName;
+	private Boolean enabled;
+	private Boolean displayed;
+	private Boolean selected;
+	private Integer optionCount;
+	private final Map<String, String> attributes;
+	
+	/*
+	 * Element whose properties are read when asked for, or null when the 
+	 * snapshot was taken by the script.
+	 */
+	private final WebElement element;
+	
+	private ElementSnapshot( boolean present, String tagName, boolean enabled, boolean displayed, boolean selected, int optionCount, Map<String, String> attributes )
+	{
+		this.present = present;
+		this.tagName = tagName;
+		this.enabled = enabled;
+		this.displayed = displayed;
+		this.selected = selected;
+		this.optionCount = optionCount;
+		this.attributes = attributes;
+		this.element = null;
+	}
+	
+	private ElementSnapshot( WebElement element )
+	{
+		this.present = true;
+		this.attributes = new HashMap<String, String>();
+		this.element = element;
+	}
+	
+	/**
+	 * Takes a snapshot of an element, with the driver that found it. 
+	 * Elements that wrap others, like the ones of page fields, are 
+	 * unwrapped to find the driver.
+	 * 
+	 * @param element element.
+	 * @param attributes names of the attributes to read.
+	 * @return the snapshot.
+	 */
+	public static ElementSnapshot of( WebElement element, String... attributes )
+	{
+		WebElement target = element;
+		while ( ! (target instanceof WrapsDriver) && target instanceof WrapsElement )
+		{
+			final WebElement wrapped = ((WrapsElement) target).getWrappedElement();
+			if ( wrapped == null || wrapped == target )
+			{
+				break;
+			}
+			target = wrapped;
+		}
+		if ( target instanceof WrapsDriver )
+		{
+			return of(((WrapsDriver) target).getWrappedDriver(), target, attributes);
+		}
+		return of(null, element, attributes);
+	}
+	
+	/**
+	 * Takes a snapshot of an element.
+	 * 
+	 * @param driver Selenium web driver, may be <code>null</code>.
+	 * @param element element.
+	 * @param attributes names of the attributes to read.
+	 * @return the snapshot.
+	 */
+	public static ElementSnapshot of( WebDriver driver, WebElement element, String... attributes )
+	{
+		return of(driver, Collections.singletonList(element), attributes).get(0);
+	}
+	
+	/**
+	 * Takes snapshots of several elements, in a single script call.
+	 * 
+	 * @param driver Selenium web driver, may be <code>null</code>.
+	 * @param elements elements.
+	 * @param attributes names of the attributes to read.
+	 * @return the snapshots, in the order of the elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<ElementSnapshot> of( WebDriver driver, List<WebElement> elements, String... attributes )
+	{
+		final List<ElementSnapshot> snapshots = new ArrayList<ElementSnapshot>(elements.size());
+		if ( elements.isEmpty() )
+		{
+			return snapshots;
+		}
+		if ( ! (driver instanceof JavascriptExecutor) )
+		{
+			for ( WebElement element : elements )
+			{
+				snapshots.add(new ElementSnapshot(element));
+			}
+			return snapshots;
+		}
+		final Object result = ((JavascriptExecutor) driver).executeScript(SNAPSHOT_SCRIPT, elements, Arrays.asList(attributes));
+		for ( Object o : (List<Object>) result )
+		{
+			snapshots.add(fromScript((Map<String, Object>) o));
+		}
+		return snapshots;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static ElementSnapshot fromScript( Map<String, Object> map )
+	{
+		if ( ! Boolean.TRUE.equals(map.get("present")) )
+		{
+			return new ElementSnapshot(false, null, false, false, false, 0, Collections.<String, String>emptyMap());
+		}
+		final Map<String, String> attributes = new HashMap<String, String>();
+		final Object values = map.get("attributes");
+		if ( values instanceof Map )
+		{
+			for ( Map.Entry<String, Object> entry : ((Map<String, Object>) values).entrySet() )
+			{
+				attributes.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().toString());
+			}
+		}
+		final Object count = map.get("optionCount");
+		return new ElementSnapshot(true, (String) map.get("tagName"), 
+				Boolean.TRUE.equals(map.get("enabled")), 
+				Boolean.TRUE.equals(map.get("displayed")), 
+				Boolean.TRUE.equals(map.get("selected")), 
+				count instanceof Number ? ((Number) count).intValue() : 0, 
+				attributes);
+	}
+	
+	/**
+	 * @return <code>false</code> if the element was <code>null</code>.
+	 */
+	public boolean isPresent()
+	{
+		return present;
+	}
+	
+	/**
+	 * @return tag name, in lower case.
+	 */
+	public String getTagName()
+	{
+		if ( tagName == null && element != null )
+		{
+			tagName = element.getTagName().toLowerCase();
+		}
+		return tagName;
+	}
+	
+	public boolean isEnabled()
+	{
+		if ( enabled == null )
+		{
+			enabled = element.isEnabled();
+		}
+		return enabled;
+	}
+	
+	public boolean isDisplayed()
+	{
+		if ( displayed == null )
+		{
+			displayed = element.isDisplayed();
+		}
+		return displayed;
+	}
+	
+	/**
+	 * @return <code>true</code> for selected options and checked check 
+	 * boxes or radio buttons.
+	 */
+	public boolean isSelected()
+	{
+		if ( selected == null )
+		{
+			selected = element.isSelected();
+		}
+		return selected;
+	}
+	
+	/**
+	 * @return number of options of a select, or of options inside the 
+	 * element.
+	 */
+	public int getOptionCount()
+	{
+		if ( optionCount == null )
+		{
+			optionCount = element.findElements(By.tagName("option")).size();
+		}
+		return optionCount;
+	}
+	
+	/**
+	 * @param name attribute name, as given when taking the snapshot.
+	 * @return the attribute value, or <code>null</code>.
+	 */
+	public String getAttribute( String name )
+	{
+		if ( element != null && ! attributes.containsKey(name) )
+		{
+			attributes.put(name, element.getAttribute(name));
+		}
+		return attributes.get(name);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return "ElementSnapshot [present=" + present + ", tagName=" + tagName + ", enabled=" + enabled 
+				+ ", displayed=" + displayed + ", selected=" + selected + ", optionCount=" + optionCount 
+				+ ", attributes=" + attributes + "]";
+	}
+	
+}
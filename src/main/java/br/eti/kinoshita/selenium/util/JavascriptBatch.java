@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * <p>Queues JavaScript commands and sends them to the browser in a single 
+ * <code>executeScript</code> call, i.e. a single round trip to the driver.</p>
+ * 
+ * <p>Commands are scripts with bound arguments (<code>arguments[0]</code>, 
+ * <code>arguments[1]</code>, ...) instead of values concatenated into the 
+ * script. The dispatcher script never changes, and each command script is 
+ * compiled once per page and cached in the window, so the browser can 
+ * reuse it.</p>
+ * 
+ * <pre>
+ * List&lt;Object&gt; results = new JavascriptBatch(driver)
+ *     .add("document.getElementById(arguments[0]).value = arguments[1];", "name", "Bruno")
+ *     .addClick("submit")
+ *     .add("return document.title;")
+ *     .execute();
+ * </pre>
+ * 
+ * <p>The commands run in the order they were added. If one of them fails, 
+ * the following ones are not run, and a WebDriverException is thrown.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class JavascriptBatch
+{
+
+	/**
+	 * Dispatches a list of [script, arguments] commands.
+	 */
+	private static final String DISPATCHER_SCRIPT = 
+		"var commands = arguments[0], results = [];" +
+		"var cache = window.__seleniumBatchCache || (window.__seleniumBatchCache = {});" +
+		"for (var i = 0; i < commands.length; i++) {" +
+		"  var source = commands[i][0];" +
+		"  var fn = cache[source];" +
+		"  if (!fn) { fn = cache[source] = new Function(source); }" +
+		"  var result = fn.apply(window, commands[i][1]);" +
+		"  results.push(result === undefined ? null : result);" +
+		"}" +
+		"return results;";
+	
+	/**
+	 * Dispatches a click event to the element with the id arguments[0].
+	 */
+	public static final String CLICK_SCRIPT = 
+		"var el = document.getElementById(arguments[0]); var evt; " +
+		"if ( document.createEvent ) { evt = document.createEvent('MouseEvents'); " +
+		"evt.initMouseEvent('click', true, true, window, 0, 0, 0, 0, 0, false, false, false, false, 0, null); " +
+		"if ( el != null ) { el.dispatchEvent( evt ); } } " +
+		"else if ( el != null && el.fireEvent ) { el.fireEvent('onclick'); }";
+	
+	/**
+	 * Calls click() of the element with the id arguments[0].
+	 */
+	public static final String CLICK_IE_SCRIPT = "document.getElementById(arguments[0]).click();";
+	
+	private final WebDriver driver;
+	
+	private final List<List<Object>> commands = new ArrayList<List<Object>>();
+	
+	/**
+	 * @param driver Selenium web driver. It must be a JavascriptExecutor.
+	 */
+	public JavascriptBatch( WebDriver driver )
+	{
+		if ( ! (driver instanceof JavascriptExecutor) )
+		{
+			throw new SeleniumWebTestException("Driver does not execute JavaScript: " + driver);
+		}
+		this.driver = driver;
+	}
+	
+	/**
+	 * Queues a command.
+	 * 
+	 * @param script script, using arguments[n] for the arguments. Use 
+	 * <code>return</code> to give a result.
+	 * @param args arguments: numbers, booleans, strings, WebElements or 
+	 * lists of them.
+	 * @return this batch.
+	 */
+	public JavascriptBatch add( String script, Object... args )
+	{
+		final List<Object> command = new ArrayList<Object>(2);
+		command.add(script);
+		command.add(args == null ? Collections.emptyList() : Arrays.asList(args));
+		commands.add(command);
+		return this;
+	}
+	
+	/**
+	 * Queues a click event on an element.
+	 * 
+	 * @param elementID element id.
+	 * @return this batch.
+	 */
+	public JavascriptBatch addClick( String elementID )
+	{
+		return add(CLICK_SCRIPT, elementID);
+	}
+	
+	/**
+	 * Queues a call to click() of an element, for Internet Explorer.
+	 * 
+	 * @param elementID element id.
+	 * @return this batch.
+	 */
+	public JavascriptBatch addClickIE( String elementID )
+	{
+		return add(CLICK_IE_SCRIPT, elementID);
+	}
+	
+	/**
+	 * @return number of queued commands.
+	 */
+	public int size()
+	{
+		return commands.size();
+	}
+	
+	/**
+	 * Runs the queued commands in a single round trip, and clears the queue.
+	 * 
+	 * @return the result of each command, in order. Commands without a 
+	 * result give <code>null</code>.
+	 * @throws SeleniumWebTestException if the driver does not return the 
+	 * list of results.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Object> execute()
+	throws SeleniumWebTestException
+	{
+		if ( commands.isEmpty() )
+		{
+			return new ArrayList<Object>();
+		}
+		final List<List<Object>> batch = new ArrayList<List<Object>>(commands);
+		commands.clear();
+		final Object results = ((JavascriptExecutor) driver).executeScript(DISPATCHER_SCRIPT, batch);
+		if ( ! (results instanceof List) )
+		{
+			throw new SeleniumWebTestException("Expected the results of " + batch.size() + " JavaScript commands, but got: " + results);
+		}
+		return (List<Object>) results;
+	}
+	
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Checks a {@link Condition} until it is met or a deadline passes. The 
+ * time between attempts is given by a {@link Backoff}, and the deadline is 
+ * measured with <code>System.nanoTime()</code>, so it is not affected by 
+ * changes of the system clock.</p>
+ * 
+ * <p>If the thread is interrupted while waiting, the interrupt flag is 
+ * restored and a {@link SeleniumWebTestException} is thrown.</p>
+ * 
+ * <pre>
+ * WebElement element = new Poller(Backoff.exponential(10, 1.5, 500))
+ *     .ignoring(NoSuchElementException.class)
+ *     .until(condition, 30, TimeUnit.SECONDS);
+ * </pre>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class Poller
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Poller.class);
+	
+	/**
+	 * Backoff used by the {@link Utils} wait helpers: 10ms, growing 1.5 times 
+	 * after each attempt, up to 500ms.
+	 */
+	public static final Backoff DEFAULT_BACKOFF = Backoff.exponential(10L, 1.5d, 500L);
+	
+	private final Backoff backoff;
+	
+	private final List<Class<? extends RuntimeException>> ignored = new ArrayList<Class<? extends RuntimeException>>();
+	
+	/**
+	 * Creates a poller with the {@link #DEFAULT_BACKOFF}.
+	 */
+	public Poller()
+	{
+		this(DEFAULT_BACKOFF);
+	}
+	
+	/**
+	 * @param backoff time between attempts.
+	 */
+	public Poller( Backoff backoff )
+	{
+		this.backoff = backoff;
+	}
+	
+	/**
+	 * @param exception exceptions thrown by the condition that mean it is 
+	 * not met yet, instead of an error.
+	 * @return this poller.
+	 */
+	public Poller ignoring( Class<? extends RuntimeException> exception )
+	{
+		ignored.add(exception);
+		return this;
+	}
+	
+	/**
+	 * @return the backoff.
+	 */
+	public Backoff getBackoff()
+	{
+		return backoff;
+	}
+	
+	/**
+	 * Checks a condition until it is met, or the timeout expires. The 
+	 * condition is checked at least once.
+	 * 
+	 * @param condition condition.
+	 * @param timeout maximum time to wait.
+	 * @param unit unit of the timeout.
+	 * @return the value of the condition, or <code>null</code> if it was not 
+	 * met in time.
+	 * @throws SeleniumWebTestException if the thread is interrupted.
+	 */
+	public <T> T until( Condition<T> condition, long timeout, TimeUnit unit )
+	throws SeleniumWebTestException
+	{
+		final long start = System.nanoTime();
+		final long deadline = start + unit.toNanos(timeout);
+		int attempt = 0;
+		while ( true )
+		{
+			++attempt;
+			final T value = evaluate(condition);
+			final long now = System.nanoTime();
+			if ( value != null && ! Boolean.FALSE.equals(value) )
+			{
+				backoff.onSuccess(now - start);
+				return value;
+			}
+			final long remaining = deadline - now;
+			if ( remaining <= 0 )
+			{
+				LOGGER.debug("Condition not met after " + attempt + " attempts");
+				return null;
+			}
+			final long interval = Math.min(backoff.nextInterval(attempt, now - start), remaining);
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(interval);
+			}
+			catch ( InterruptedException ie )
+			{
+				Thread.currentThread().interrupt();
+				throw new SeleniumWebTestException("Interrupted while waiting for condition", ie);
+			}
+		}
+	}
+	
+	private <T> T evaluate( Condition<T> condition )
+	{
+		try
+		{
+			return condition.evaluate();
+		}
+		catch ( RuntimeException re )
+		{
+			for ( Class<? extends RuntimeException> exception : ignored )
+			{
+				if ( exception.isInstance(re) )
+				{
+					LOGGER.trace(re.getMessage(), re);
+					return null;
+				}
+			}
+			throw re;
+		}
+	}
+	
+}
@@ -0,0 +1,312 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Runs an action until it succeeds, with a bounded number of attempts 
+ * and a bounded total duration. The time between attempts comes from a 
+ * {@link Backoff}, with a random jitter so that parallel tests do not 
+ * retry in lock step. Exceptions of the retryable types count as failed 
+ * attempts; any other exception is thrown right away.</p>
+ * 
+ * <p>The number of attempts of each action is recorded in 
+ * {@link RetryStatistics}.</p>
+ * 
+ * <p>Policies may be read from selenium.properties with 
+ * {@link #fromConfiguration(Configuration, String)}.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class RetryPolicy
+{
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RetryPolicy.class);
+	
+	private static final Random RANDOM = new Random();
+	
+	private static final long DEFAULT_MAX_DURATION = 7500L;
+	private static final long DEFAULT_INITIAL_INTERVAL = 50L;
+	private static final double DEFAULT_MULTIPLIER = 2.0d;
+	private static final long DEFAULT_MAX_INTERVAL = 750L;
+	
+	private int maxAttempts = 10;
+	private long maxDuration = DEFAULT_MAX_DURATION;
+	private Backoff backoff = Backoff.exponential(DEFAULT_INITIAL_INTERVAL, DEFAULT_MULTIPLIER, DEFAULT_MAX_INTERVAL);
+	private double jitter = 0.2d;
+	private final List<Class<? extends RuntimeException>> retryOn = new ArrayList<Class<? extends RuntimeException>>();
+	
+	/**
+	 * Reads a policy from the configuration. Each setting is read from 
+	 * selenium.retry.&lt;name&gt;.&lt;setting&gt;, then from 
+	 * selenium.retry.&lt;setting&gt;. The settings are maxAttempts, 
+	 * maxDuration (ms), initialInterval (ms), multiplier, maxInterval (ms), 
+	 * jitter (0 to 1) and retryOn (comma separated exception class names).
+	 * 
+	 * @param configuration Selenium configuration.
+	 * @param name name of the helper using the policy.
+	 * @return the policy.
+	 */
+	public static RetryPolicy fromConfiguration( Configuration configuration, String name )
+	{
+		return fromConfiguration(configuration, name, DEFAULT_MAX_DURATION, 
+				DEFAULT_INITIAL_INTERVAL, DEFAULT_MULTIPLIER, DEFAULT_MAX_INTERVAL);
+	}
+	
+	/**
+	 * Reads a policy from the configuration, like 
+	 * {@link #fromConfiguration(Configuration, String)}, with the defaults 
+	 * of a helper for the settings that are not in the configuration.
+	 * 
+	 * @param configuration Selenium configuration.
+	 * @param name name of the helper using the policy.
+	 * @param maxDuration default maximum duration (ms).
+	 * @param initialInterval default initial interval (ms).
+	 * @param multiplier default interval multiplier.
+	 * @param maxInterval default maximum interval (ms).
+	 * @return the policy.
+	 */
+	public static RetryPolicy fromConfiguration( Configuration configuration, String name, 
+			long maxDuration, long initialInterval, double multiplier, long maxInterval )
+	{
+		final String global = "selenium.retry.";
+		final String specific = global + name + ".";
+		final RetryPolicy policy = new RetryPolicy();
+		policy.setMaxAttempts(configuration.getInt(specific + "maxAttempts", 
+				configuration.getInt(global + "maxAttempts", policy.maxAttempts)));
+		policy.setMaxDuration(configuration.getLong(specific + "maxDuration", 
+				configuration.getLong(global + "maxDuration", maxDuration)));
+		policy.setBackoff(Backoff.exponential(
+				configuration.getLong(specific + "initialInterval", configuration.getLong(global + "initialInterval", initialInterval)), 
+				configuration.getDouble(specific + "multiplier", configuration.getDouble(global + "multiplier", multiplier)), 
+				configuration.getLong(specific + "maxInterval", configuration.getLong(global + "maxInterval", maxInterval))));
+		policy.setJitter(configuration.getDouble(specific + "jitter", 
+				configuration.getDouble(global + "jitter", policy.jitter)));
+		final String exceptions = configuration.getString(specific + "retryOn", 
+				configuration.getString(global + "retryOn", ""));
+		for ( String exception : StringUtils.split(exceptions, ", ") )
+		{
+			try
+			{
+				policy.retryOn(Class.forName(exception).asSubclass(RuntimeException.class));
+			}
+			catch ( ClassNotFoundException cnfe )
+			{
+				throw new SeleniumWebTestException("Invalid exception in retry policy " + name + ": " + exception, cnfe);
+			}
+			catch ( ClassCastException cce )
+			{
+				throw new SeleniumWebTestException("Not a runtime exception in retry policy " + name + ": " + exception, cce);
+			}
+		}
+		return policy;
+	}
+	
+	public int getMaxAttempts()
+	{
+		return maxAttempts;
+	}
+	
+	/**
+	 * @param maxAttempts maximum number of attempts, at least 1.
+	 * @return this policy.
+	 */
+	public RetryPolicy setMaxAttempts( int maxAttempts )
+	{
+		if ( maxAttempts < 1 )
+		{
+			throw new IllegalArgumentException("Invalid number of attempts: " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+	
+	public long getMaxDuration()
+	{
+		return maxDuration;
+	}
+	
+	/**
+	 * @param maxDuration maximum milliseconds spent retrying. No attempt 
+	 * starts after it.
+	 * @return this policy.
+	 */
+	public RetryPolicy setMaxDuration( long maxDuration )
+	{
+		this.maxDuration = maxDuration;
+		return this;
+	}
+	
+	public Backoff getBackoff()
+	{
+		return backoff;
+	}
+	
+	/**
+	 * @param backoff time between attempts.
+	 * @return this policy.
+	 */
+	public RetryPolicy setBackoff( Backoff backoff )
+	{
+		this.backoff = backoff;
+		return this;
+	}
+	
+	public double getJitter()
+	{
+		return jitter;
+	}
+	
+	/**
+	 * @param jitter fraction of the interval added or removed at random, 
+	 * from 0 to 1.
+	 * @return this policy.
+	 */
+	public RetryPolicy setJitter( double jitter )
+	{
+		if ( jitter < 0.0d || jitter > 1.0d )
+		{
+			throw new IllegalArgumentException("Invalid jitter: " + jitter);
+		}
+		this.jitter = jitter;
+		return this;
+	}
+	
+	/**
+	 * @param exception exceptions that count as a failed attempt.
+	 * @return this policy.
+	 */
+	public RetryPolicy retryOn( Class<? extends RuntimeException> exception )
+	{
+		retryOn.add(exception);
+		return this;
+	}
+	
+	/**
+	 * Runs an action until it returns a value (not <code>null</code> nor 
+	 * <code>Boolean.FALSE</code>), or the attempts or time are exhausted.
+	 * 
+	 * @param name name of the action, used in the statistics.
+	 * @param action action.
+	 * @return the value of the action, or <code>null</code> if it did not 
+	 * succeed.
+	 * @throws RuntimeException the exception of the last attempt, if it 
+	 * failed with a retryable exception, or any other exception.
+	 * @throws SeleniumWebTestException if the thread is interrupted.
+	 */
+	public <T> T execute( String name, Condition<T> action )
+	{
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxDuration);
+		RuntimeException last = null;
+		int attempt = 0;
+		while ( true )
+		{
+			++attempt;
+			try
+			{
+				final T value = action.evaluate();
+				if ( value != null && ! Boolean.FALSE.equals(value) )
+				{
+					backoff.onSuccess(System.nanoTime() - start);
+					RetryStatistics.getInstance().record(name, attempt, true, System.nanoTime() - start);
+					return value;
+				}
+				last = null;
+			}
+			catch ( RuntimeException re )
+			{
+				if ( ! isRetryable(re) )
+				{
+					RetryStatistics.getInstance().record(name, attempt, false, System.nanoTime() - start);
+					throw re;
+				}
+				LOGGER.debug("Attempt " + attempt + " of " + name + " failed: " + re.getMessage());
+				last = re;
+			}
+			final long now = System.nanoTime();
+			if ( attempt >= maxAttempts || now >= deadline )
+			{
+				RetryStatistics.getInstance().record(name, attempt, false, now - start);
+				LOGGER.debug(name + " gave up after " + attempt + " attempts");
+				if ( last != null )
+				{
+					throw last;
+				}
+				return null;
+			}
+			sleep(Math.min(withJitter(backoff.nextInterval(attempt, now - start)), deadline - now));
+		}
+	}
+	
+	private boolean isRetryable( RuntimeException re )
+	{
+		for ( Class<? extends RuntimeException> exception : retryOn )
+		{
+			if ( exception.isInstance(re) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private long withJitter( long interval )
+	{
+		if ( jitter == 0.0d )
+		{
+			return interval;
+		}
+		final double factor;
+		synchronized ( RANDOM )
+		{
+			factor = 1.0d + jitter * (2.0d * RANDOM.nextDouble() - 1.0d);
+		}
+		return (long) (interval * factor);
+	}
+	
+	private static void sleep( long nanos )
+	{
+		try
+		{
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		}
+		catch ( InterruptedException ie )
+		{
+			Thread.currentThread().interrupt();
+			throw new SeleniumWebTestException("Interrupted while retrying", ie);
+		}
+	}
+	
+}
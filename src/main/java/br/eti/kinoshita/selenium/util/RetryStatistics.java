@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Counts how many attempts each {@link RetryPolicy} action needed, so 
+ * that the time spent retrying can be measured and the policies tuned.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class RetryStatistics
+{
+
+	/**
+	 * Attempts above this number are counted together.
+	 */
+	private static final int MAX_TRACKED_ATTEMPTS = 32;
+	
+	private static final RetryStatistics INSTANCE = new RetryStatistics();
+	
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	
+	/**
+	 * @return the statistics of all the policies.
+	 */
+	public static RetryStatistics getInstance()
+	{
+		return INSTANCE;
+	}
+	
+	/**
+	 * Records an action.
+	 * 
+	 * @param name action name.
+	 * @param attempts number of attempts.
+	 * @param success whether the action succeeded.
+	 * @param elapsed nanoseconds spent.
+	 */
+	public void record( String name, int attempts, boolean success, long elapsed )
+	{
+		Counter counter = counters.get(name);
+		if ( counter == null )
+		{
+			final Counter created = new Counter();
+			counter = counters.putIfAbsent(name, created);
+			if ( counter == null )
+			{
+				counter = created;
+			}
+		}
+		counter.attempts.incrementAndGet(Math.min(attempts, MAX_TRACKED_ATTEMPTS));
+		(success ? counter.successes : counter.failures).incrementAndGet();
+		counter.nanos.addAndGet(elapsed);
+	}
+	
+	/**
+	 * @param name action name.
+	 * @return how many times the action needed each number of attempts, 
+	 * in ascending order of attempts. The last entry also counts actions 
+	 * with more attempts.
+	 */
+	public Map<Integer, Long> getDistribution( String name )
+	{
+		final Map<Integer, Long> distribution = new TreeMap<Integer, Long>();
+		final Counter counter = counters.get(name);
+		if ( counter != null )
+		{
+			for ( int i = 1 ; i <= MAX_TRACKED_ATTEMPTS ; ++i )
+			{
+				final long count = counter.attempts.get(i);
+				if ( count > 0 )
+				{
+					distribution.put(i, count);
+				}
+			}
+		}
+		return distribution;
+	}
+	
+	/**
+	 * Forgets all the recorded actions.
+	 */
+	public void clear()
+	{
+		counters.clear();
+	}
+	
+	/**
+	 * @return one line per action, with the number of successes and 
+	 * failures, total time and the distribution of attempts. Empty if no 
+	 * action was recorded.
+	 */
+	public String report()
+	{
+		final StringBuilder report = new StringBuilder();
+		for ( String name : new TreeMap<String, Counter>(counters).keySet() )
+		{
+			final Counter counter = counters.get(name);
+			report.append(name)
+				.append(": ").append(counter.successes.get()).append(" succeeded, ")
+				.append(counter.failures.get()).append(" failed, ")
+				.append(counter.nanos.get() / 1000000L).append("ms, attempts ")
+				.append(getDistribution(name))
+				.append('\n');
+		}
+		return report.toString();
+	}
+	
+	/*
+	 * Counters of an action.
+	 */
+	private static final class Counter
+	{
+		private final AtomicLongArray attempts = new AtomicLongArray(MAX_TRACKED_ATTEMPTS + 1);
+		private final AtomicLong successes = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+	}
+	
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2012 Bruno P. Kinoshita <http://www.kinoshita.eti.br>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package br.eti.kinoshita.selenium.util;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.tap4j.ext.testng.TAPAttribute;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+/**
+ * <p>Publishes TAPAttributes to the TestNG test context, where 
+ * TestTAPReporter reads them and matches them to each test result by 
+ * {@link TAPAttribute#getMethod()}.</p>
+ * 
+ * <p>Each attribute keeps one map per test method. The values of each 
+ * invocation of the method, i.e. each data-driven row and thread, are 
+ * put under their own key, and merged with the values of the previous 
+ * invocations under a lock on the test context. A test context attribute 
+ * holds a single method, so the attribute holds the map of the method 
+ * published last, as it used to with the "Files" attribute.</p>
+ * 
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class TapContextAttributes
+{
+
+	/*
+	 * Merged values, by test context, attribute name and method.
+	 */
+	private static final Map<ITestContext, Map<String, Map<Method, Map<String, Object>>>> MERGED = 
+			Collections.synchronizedMap(new WeakHashMap<ITestContext, Map<String, Map<Method, Map<String, Object>>>>());
+	
+	private TapContextAttributes()
+	{
+	}
+	
+	/**
+	 * @param result test result.
+	 * @return key of the invocation of the test result, in the current 
+	 * thread. It has the method name, its parameters and the thread id.
+	 */
+	public static String invocationKey( ITestResult result )
+	{
+		final Object[] parameters = result.getParameters();
+		return result.getMethod().getMethod().getName() + 
+				(parameters == null ? Collections.emptyList() : Arrays.asList(parameters)) + 
+				"@" + Thread.currentThread().getId();
+	}
+	
+	/**
+	 * Merges the value of an invocation into the map of its method, and 
+	 * sets the map as a TAPAttribute of the test context.
+	 * 
+	 * @param context test context.
+	 * @param name attribute name, e.g. Files.
+	 * @param method test method.
+	 * @param invocation invocation key.
+	 * @param value value of the invocation.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void merge( ITestContext context, String name, Method method, String invocation, Object value )
+	{
+		synchronized ( context )
+		{
+			Map<String, Map<Method, Map<String, Object>>> attributes = MERGED.get(context);
+			if ( attributes == null )
+			{
+				attributes = new LinkedHashMap<String, Map<Method, Map<String, Object>>>();
+				MERGED.put(context, attributes);
+			}
+			Map<Method, Map<String, Object>> methods = attributes.get(name);
+			if ( methods == null )
+			{
+				methods = new LinkedHashMap<Method, Map<String, Object>>();
+				attributes.put(name, methods);
+			}
+			Map<String, Object> merged = methods.get(method);
+			if ( merged == null )
+			{
+				merged = new LinkedHashMap<String, Object>();
+				methods.put(method, merged);
+			}
+			final Object previous = merged.get(invocation);
+			if ( previous instanceof Map && value instanceof Map )
+			{
+				final Map<String, Object> values = new LinkedHashMap<String, Object>((Map<String, Object>) previous);
+				values.putAll((Map<String, Object>) value);
+				merged.put(invocation, values);
+			}
+			else
+			{
+				merged.put(invocation, value);
+			}
+			context.setAttribute(name, new TAPAttribute(method, new LinkedHashMap<String, Object>(merged)));
+		}
+	}
+	
+}
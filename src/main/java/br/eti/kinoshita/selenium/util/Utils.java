@@ -23,6 +23,11 @@
  */
 package br.eti.kinoshita.selenium.util;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.StringUtils;
 import org.openqa.selenium.By;
 import org.openqa.selenium.ElementNotVisibleException;
@@ -35,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.inject.Inject;
 
 
 /**
@@ -55,6 +61,10 @@ public class Utils
 	
 	private Utils() {} // Hidden constructor as 'tis a utility class.
 	
+	private static volatile RetryPolicy attributeChangePolicy = new RetryPolicy();
+	private static volatile RetryPolicy disappearPolicy = new RetryPolicy();
+	private static volatile RetryPolicy radioButtonPolicy = radioButtonPolicy(new BaseConfiguration());
+	
 	public static Function<WebDriver, WebElement> presenceOfElement(
 			final By locator )
 	{
@@ -101,7 +111,9 @@ public class Utils
 	}
 	
 	/**
-	 * Wait for assync content in a determined period
+	 * Wait for assync content in a determined period. The element is 
+	 * polled with the {@link Poller#DEFAULT_BACKOFF}, so this method returns 
+	 * a few milliseconds after the element is enabled and displayed.
 	 * 
 	 * @param driver Selenium web driver.
 	 * @param by Selenium By expression.
@@ -109,56 +121,54 @@ public class Utils
 	 * @return a WebElement asynchronously loaded.
 	 * @throws NoSuchElementException
 	 */
-	public static WebElement waitForAssyncContent( WebDriver driver, By by, Long timeout ) 
+	public static WebElement waitForAssyncContent( final WebDriver driver, final By by, Long timeout ) 
 	throws NoSuchElementException
 	{
-		long end = System.currentTimeMillis() + (timeout);
-		WebElement renderedWebElement = null;
-		
-		while ( System.currentTimeMillis() < end )
-		{
-			try
-			{
-				renderedWebElement = driver.findElement( by );
-			}
-			catch ( NoSuchElementException nsee )
-			{
-				LOGGER.debug(nsee.getMessage(), nsee);
-			}
-			
-			if ( renderedWebElement != null && renderedWebElement.isEnabled() && renderedWebElement.isDisplayed() )
-			{
-				return renderedWebElement;
-			}
-			
-			try
-			{
-				Thread.sleep(1000);
-			} 
-			catch (InterruptedException ie)
+		final WebElement[] lastFound = new WebElement[1];
+		final WebElement renderedWebElement = new Poller()
+			.ignoring(NoSuchElementException.class)
+			.until(new Condition<WebElement>()
 			{
-				LOGGER.debug(ie.getMessage(), ie);
-			}
-		}
+				public WebElement evaluate()
+				{
+					final WebElement element = driver.findElement( by );
+					lastFound[0] = element;
+					final ElementSnapshot snapshot = ElementSnapshot.of(driver, element);
+					return snapshot.isEnabled() && snapshot.isDisplayed() ? element : null;
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
 		
-		if ( renderedWebElement == null )
+		if ( renderedWebElement != null )
 		{
-			throw new NoSuchElementException( "Could not locate assync content" );
+			return renderedWebElement;
 		}
 		
-		try
+		if ( lastFound[0] == null )
 		{
-			if ( renderedWebElement.isDisplayed() )
-			{
-				throw new NoSuchElementException( "Element is not being displayed" );
-			}
-		} 
-		catch (Throwable t)
-		{
-			LOGGER.debug(t.getMessage(), t);
+			throw new NoSuchElementException( "Could not locate assync content" );
 		}
 		
-		return renderedWebElement;
+		LOGGER.debug("Element " + by + " found, but not enabled and displayed");
+		return lastFound[0];
+	}
+	
+	/**
+	 * Wait for assync content in a determined period, inside the browser. 
+	 * A MutationObserver is notified of DOM changes, and the wait returns 
+	 * as soon as the element is present, enabled and visible, in a single 
+	 * round trip to the driver.
+	 * 
+	 * @param driver Selenium web driver.
+	 * @param by Selenium By expression.
+	 * @param timeout Selenium time out.
+	 * @return a WebElement asynchronously loaded.
+	 * @throws NoSuchElementException
+	 * @see DomWait
+	 */
+	public static WebElement waitForAssyncContentInBrowser( WebDriver driver, By by, Long timeout ) 
+	throws NoSuchElementException
+	{
+		return DomWait.waitForElement(driver, by, timeout);
 	}
 	
 	/**
@@ -167,52 +177,81 @@ public class Utils
 	 * @param select
 	 * @param index
 	 * @param timeout
+	 * @see #waitForSelectIndex(WebElement, Integer, Long)
 	 */
-	public static void waitForSelectIndex( Select select, Integer index, Long timeout )
+	public static void waitForSelectIndex( final Select select, final Integer index, Long timeout )
 	{
-		Long end = System.currentTimeMillis() + timeout;
-		
-		while( System.currentTimeMillis() < end )
+		new Poller().until(new Condition<Boolean>()
 		{
-			if ( select.getOptions().size() < index )
+			public Boolean evaluate()
 			{
-				try
-				{
-					Thread.sleep( 1000 );
-				} 
-				catch (InterruptedException e)
-				{
-					LOGGER.debug(e.getMessage(), e);
-				}
-			} 
-			else 
+				return select.getOptions().size() >= index;
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Wait for determined select index in a select (combo) box in a determined 
+	 * period. The options are counted in the browser, instead of fetching 
+	 * them all.
+	 * 
+	 * @param select the select element
+	 * @param index
+	 * @param timeout
+	 */
+	public static void waitForSelectIndex( final WebElement select, final Integer index, Long timeout )
+	{
+		new Poller().until(new Condition<Boolean>()
+		{
+			public Boolean evaluate()
 			{
-				break;
+				return ElementSnapshot.of(select).getOptionCount() >= index;
 			}
-		}
+		}, timeout, TimeUnit.MILLISECONDS);
 	}
 	
 	/**
-	 * Execute the javascript onclick event
+	 * Execute the javascript onclick event. The script is always the same, 
+	 * with the element id as argument, so the browser may reuse it.
 	 * 
 	 * @param driver
 	 * @param elementID
+	 * @see JavascriptBatch#addClick(String)
 	 */
 	public static void executeJavascriptClick( WebDriver driver,
 			String elementID )
 	{
-		String jsCommand = "var el = document.getElementById('"
-				+ elementID
-				+ "'); var evt; if ( document.createEvent ) { evt = document.createEvent('MouseEvents'); evt.initMouseEvent('click', true, true, window, 0, 0, 0, 0, 0, false, false, false, false, 0, null); if ( el != null ) { el.dispatchEvent( evt ); } } else if ( el != null && el.fireEvent ) { el.fireEvent('onclick'); }";
-		((JavascriptExecutor) driver).executeScript(jsCommand);
+		((JavascriptExecutor) driver).executeScript(JavascriptBatch.CLICK_SCRIPT, elementID);
 	}
 
+	/**
+	 * Execute the click() method of an element, for Internet Explorer.
+	 * 
+	 * @param driver
+	 * @param elementID
+	 * @see JavascriptBatch#addClickIE(String)
+	 */
 	public static void executeJavascriptClickIE( WebDriver driver, String elementID )
 	{
-		String jsCommand = "var el = document.getElementById('"
-			+ elementID
-			+ "'); el.click();";
-		((JavascriptExecutor) driver).executeScript(jsCommand);
+		((JavascriptExecutor) driver).executeScript(JavascriptBatch.CLICK_IE_SCRIPT, elementID);
+	}
+	
+	/**
+	 * Execute several javascript commands in a single round trip.
+	 * 
+	 * @param driver
+	 * @param jsCommands commands, without arguments
+	 * @return the result of each command
+	 * @see JavascriptBatch
+	 */
+	public static List<Object> executeJavascriptBatch( WebDriver driver, String... jsCommands )
+	{
+		final JavascriptBatch batch = new JavascriptBatch(driver);
+		for ( String jsCommand : jsCommands )
+		{
+			batch.add(jsCommand);
+		}
+		return batch.execute();
 	}
 	
 	/**
@@ -234,68 +273,94 @@ public class Utils
 	
 	/**
 	 * Click on a WebElement as many times are necessary checking 
-	 * if some attribute value has changed
+	 * if some attribute value has changed. The attempts are limited by the 
+	 * clickAndWaitForElementAttributeChange retry policy.
 	 * 
 	 * @param elementToClick
 	 * @param attributeType
 	 * @param attributeValue
 	 */
-	public static void clickAndWaitForElementAttributeChange(WebElement elementToClick, String attributeType, String attributeValue)
+	public static void clickAndWaitForElementAttributeChange(final WebElement elementToClick, final String attributeType, final String attributeValue)
 	{
-		for( int i = 0 ; i < 10 ; ++i )
+		attributeChangePolicy.execute("clickAndWaitForElementAttributeChange", new Condition<Boolean>()
 		{
-			elementToClick.click();
-			String elementAttribute = elementToClick.getAttribute(attributeType);
-			
-			if ( StringUtils.isNotBlank(elementAttribute) && elementAttribute.contains(attributeValue) )
+			public Boolean evaluate()
 			{
-				sleep(750L);
-			}
-			else
-			{
-				break;
+				elementToClick.click();
+				String elementAttribute = ElementSnapshot.of(elementToClick, attributeType).getAttribute(attributeType);
+				return ! ( StringUtils.isNotBlank(elementAttribute) && elementAttribute.contains(attributeValue) );
 			}
-		}
+		});
 	}
 	
 	/**
 	 * Click on some WebElement as many times are necessary checking 
-	 * if it desappeared
+	 * if it desappeared. The attempts are limited by the 
+	 * clickAndWaitForElementToDesappear retry policy.
 	 * 
 	 * @param elementToClick
 	 */
-	public static void clickAndWaitForElementToDesappear(WebElement elementToClick)
+	public static void clickAndWaitForElementToDesappear(final WebElement elementToClick)
 	{
-		for( int i = 0 ; i < 10 ; ++i )
+		disappearPolicy.execute("clickAndWaitForElementToDesappear", new Condition<Boolean>()
 		{
-			try 
+			public Boolean evaluate()
 			{
-				elementToClick.click();
-				sleep(750L);
-			} 
-			catch (ElementNotVisibleException e) 
-			{
-				break;
+				try 
+				{
+					elementToClick.click();
+					return Boolean.FALSE;
+				} 
+				catch (ElementNotVisibleException e) 
+				{
+					return Boolean.TRUE;
+				}
 			}
-		}
+		});
 	}
 	
 	/**
-	 * Select radio button
+	 * Select radio button. The attempts are limited by the 
+	 * selectRadioButton retry policy.
 	 * 
 	 * @param radioToClick
 	 */
-	public static void selectRadioButton(WebElement radioToClick)
+	public static void selectRadioButton(final WebElement radioToClick)
 	{
-		for( int i = 0 ; i < 10 ; ++i )
+		radioButtonPolicy.execute("selectRadioButton", new Condition<Boolean>()
 		{
-			radioToClick.click();
-			
-			if(radioToClick.isSelected())
+			public Boolean evaluate()
 			{
-				break;
+				radioToClick.click();
+				return ElementSnapshot.of(radioToClick).isSelected();
 			}
-		}
+		});
+	}
+	
+	/**
+	 * Reads the retry policies of the click helpers from the configuration 
+	 * (see {@link RetryPolicy#fromConfiguration(Configuration, String)}), 
+	 * and the script timeout restored by {@link DomWait}. 
+	 * Called by Guice, as SeleniumGuiceModule requests static injection.
+	 * 
+	 * @param configuration Selenium configuration.
+	 */
+	@Inject
+	public static void setConfiguration( Configuration configuration )
+	{
+		attributeChangePolicy = RetryPolicy.fromConfiguration(configuration, "clickAndWaitForElementAttributeChange");
+		disappearPolicy = RetryPolicy.fromConfiguration(configuration, "clickAndWaitForElementToDesappear");
+		radioButtonPolicy = radioButtonPolicy(configuration);
+		DomWait.setDefaultScriptTimeout(configuration.getLong("selenium.driver.scriptTimeout", 0L));
+	}
+	
+	/*
+	 * Radio buttons are selected by the first click or two, so the policy 
+	 * retries sooner and gives up earlier than the other helpers.
+	 */
+	private static RetryPolicy radioButtonPolicy( Configuration configuration )
+	{
+		return RetryPolicy.fromConfiguration(configuration, "selectRadioButton", 2000L, 20L, 2.0d, 250L);
 	}
 	
 }